@@ -0,0 +1,102 @@
+package demo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Round-trip latency of fast messages while other clients send messages that take 1 ms of CPU time to process,
+// depending on the channel group of the proactor and on whether the processing runs in the completion handlers
+// or is offloaded to a separate pool. Every client thread has its own connection.
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChannelGroupBenchmark {
+
+    @Param({"fixed", "cached", "default"})
+    public String group;
+
+    @Param({"false", "true"})
+    public String offload;
+
+    @Param({"4"})
+    public int threads;
+
+    private int port;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        System.setProperty("demo.nio2.group", group);
+        System.setProperty("demo.nio2.threads", String.valueOf(threads));
+        System.setProperty("demo.processing.offload", offload);
+        System.setProperty("demo.processing.threads", String.valueOf(threads));
+        System.setProperty("demo.processing.slowMicros", "1000");
+
+        port = EchoServer.PROACTOR.start();
+    }
+
+    @State(Scope.Thread)
+    public static class FastClient {
+
+        private EchoConnection connection;
+
+        @Setup(Level.Trial)
+        public void connect(ChannelGroupBenchmark benchmark) throws IOException {
+            connection = new EchoConnection(benchmark.port, 64);
+            connection.connect();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            connection.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SlowClient {
+
+        private EchoConnection connection;
+
+        @Setup(Level.Trial)
+        public void connect(ChannelGroupBenchmark benchmark) throws IOException {
+            connection = new EchoConnection(benchmark.port, 64, (byte) '!');
+            connection.connect();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public int fast(FastClient client) throws IOException {
+        return client.connection.roundTrip();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public int slow(SlowClient client) throws IOException {
+        return client.connection.roundTrip();
+    }
+}
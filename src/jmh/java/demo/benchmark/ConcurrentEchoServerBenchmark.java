@@ -0,0 +1,105 @@
+package demo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// the open connections are shared out between the benchmark threads, each operation is one round trip on the next one;
+// servers that close the connection after one echo get a new connection per operation instead
+@State(Scope.Benchmark)
+@Threads(4)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class ConcurrentEchoServerBenchmark {
+
+    @Param({"IO_THREAD_POOL", "IO_VIRTUAL_THREAD", "NIO_SELECTOR", "NIO_MULTIPLEXING", "NIO_REUSE_PORT", "NIO2_FUTURE_THREAD_POOL", "NIO2_COMPLETABLE_FUTURE", "NIO2_COMPLETION_HANDLER", "REACTOR", "PROACTOR"})
+    public EchoServer server;
+
+    @Param({"16", "1024", "65536"})
+    public int messageSize;
+
+    @Param({"1", "100", "10000"})
+    public int connections;
+
+    private int port;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException, InterruptedException {
+        port = server.start();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        private EchoServer server;
+        private EchoConnection[] connections;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void connect(ConcurrentEchoServerBenchmark benchmark, BenchmarkParams params) throws IOException {
+            server = benchmark.server;
+
+            int count = server.isKeepAlive() ? Math.max(1, benchmark.connections / params.getThreads()) : 1;
+            connections = new EchoConnection[count];
+            for (int i = 0; i < count; i++) {
+                connections[i] = new EchoConnection(server.port(benchmark.port, i), benchmark.messageSize);
+                if (server.isKeepAlive()) {
+                    connections[i].connect();
+                }
+            }
+        }
+
+        int roundTrip() throws IOException {
+            EchoConnection connection = connections[next];
+            next = (next + 1) % connections.length;
+
+            if (server.isKeepAlive()) {
+                return connection.roundTrip();
+            }
+
+            connection.connect();
+            try {
+                return connection.exchange();
+            } finally {
+                connection.close();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            for (EchoConnection connection : connections) {
+                connection.close();
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int throughput(Client client) throws IOException {
+        return client.roundTrip();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int latency(Client client) throws IOException {
+        return client.roundTrip();
+    }
+}
@@ -0,0 +1,69 @@
+package demo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Connections per second: every operation connects, makes one round trip and closes the connection,
+// so the score is bound by how fast the server accepts. A short-lived connection leaves a socket in TIME_WAIT
+// on the client side, so long runs may need a wider ip_local_port_range or net.ipv4.tcp_tw_reuse.
+@State(Scope.Benchmark)
+@Threads(8)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class ConnectionRateBenchmark {
+
+    @Param({"NIO_SELECTOR", "NIO_MULTIPLEXING", "NIO_REUSE_PORT"})
+    public EchoServer server;
+
+    private int port;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        port = server.start();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        private EchoConnection[] connections;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp(ConnectionRateBenchmark benchmark) {
+            connections = new EchoConnection[8];
+            for (int i = 0; i < connections.length; i++) {
+                connections[i] = new EchoConnection(benchmark.server.port(benchmark.port, i), 16);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int connect(Client client) throws IOException {
+        EchoConnection connection = client.connections[client.next];
+        client.next = (client.next + 1) % client.connections.length;
+
+        connection.connect();
+        try {
+            return connection.roundTrip();
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package demo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Round trips paced at a fixed rate over one long-lived connection; run with -prof gc.
+// The client allocates nothing per round trip, so gc.alloc.rate.norm is what the server allocates per echo,
+// and gc.alloc.rate is the allocation rate at that message rate.
+// NIO2_COMPLETION_HANDLER, like the proactor used to, allocates buffers and handlers for every message
+// and closes the connection after it, so it gets a new connection per round trip.
+@State(Scope.Benchmark)
+@Threads(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class EchoAllocationBenchmark {
+
+    @Param({"NIO2_COMPLETION_HANDLER", "PROACTOR", "REACTOR", "NIO_SELECTOR"})
+    public EchoServer server;
+
+    @Param({"64", "1024"})
+    public int messageSize;
+
+    @Param({"50000"})
+    public int rate;
+
+    private EchoConnection connection;
+    private long intervalNanos;
+    private long next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        int port = server.start();
+
+        connection = new EchoConnection(port, messageSize);
+        if (server.isKeepAlive()) {
+            connection.connect();
+        }
+        intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        next = System.nanoTime();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        connection.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int roundTrip() throws IOException {
+        while (System.nanoTime() < next) {
+            Thread.onSpinWait();
+        }
+        next += intervalNanos;
+
+        if (server.isKeepAlive()) {
+            return connection.roundTrip();
+        }
+
+        connection.connect();
+        try {
+            return connection.exchange();
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package demo.benchmark;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+// blocking client connection with preallocated direct buffers, so the client side allocates nothing per round trip
+class EchoConnection implements Closeable {
+
+    private final InetSocketAddress address;
+    private final ByteBuffer output;
+    private final ByteBuffer input;
+
+    private SocketChannel socketChannel;
+
+    EchoConnection(int port, int messageSize) {
+        this(port, messageSize, (byte) 'a');
+    }
+
+    EchoConnection(int port, int messageSize, byte firstByte) {
+        this.address = new InetSocketAddress("localhost", port);
+        this.output = ByteBuffer.allocateDirect(messageSize);
+        this.input = ByteBuffer.allocateDirect(Math.max(messageSize, 1024));
+
+        while (output.hasRemaining()) {
+            output.put((byte) ('a' + output.position() % 26));
+        }
+        output.put(0, firstByte);
+    }
+
+    void connect() throws IOException {
+        socketChannel = SocketChannel.open(address);
+        socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    // returns the number of echoed bytes
+    int roundTrip() throws IOException {
+        send();
+
+        int received = 0;
+        while (received < output.capacity()) {
+            input.clear();
+            int read = socketChannel.read(input);
+            if (read < 0) {
+                break;
+            }
+            received += read;
+        }
+        return received;
+    }
+
+    // for servers that echo one read and close the connection: they may echo fewer bytes than were sent
+    // and reset the connection if the rest of the message is left unread
+    int exchange() throws IOException {
+        send();
+
+        int received = 0;
+        try {
+            int read;
+            while ((read = socketChannel.read(input)) >= 0) {
+                received += read;
+                input.clear();
+            }
+        } catch (IOException e) {
+            // connection reset by the server
+        }
+        return received;
+    }
+
+    private void send() throws IOException {
+        output.clear();
+        while (output.hasRemaining()) {
+            socketChannel.write(output);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (socketChannel != null) {
+            socketChannel.close();
+            socketChannel = null;
+        }
+    }
+}
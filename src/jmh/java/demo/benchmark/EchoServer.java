@@ -0,0 +1,120 @@
+package demo.benchmark;
+
+import demo.io.server.IoEchoServer;
+import demo.io.server.IoEchoThreadPoolServer;
+import demo.nio.server.channel.NioBlockingEchoServer;
+import demo.nio.server.channel.NioNonBlockingEchoServer;
+import demo.nio.server.selector.NioMultiplexingEchoServer;
+import demo.nio.server.selector.NioReusePortEchoServer;
+import demo.nio.server.selector.NioSelectorEchoServer;
+import demo.nio.server.selector.NioSelectorTlsEchoServer;
+import demo.nio2.completion_handler.server.Nio2CompletionHandlerEchoServer;
+import demo.nio2.future.server.Nio2EchoCompletableFutureServer;
+import demo.nio2.future.server.Nio2EchoFutureServer;
+import demo.nio2.future.server.Nio2EchoFutureServerThreadPool;
+import demo.patterns.proactor.echo.ProactorInitiator;
+import demo.patterns.reactor.echo.ReactorInitiator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.SocketChannel;
+
+public enum EchoServer {
+
+    IO(port -> IoEchoServer.main(args(port)), true, 1),
+    IO_THREAD_POOL(port -> IoEchoThreadPoolServer.main(args(port)), true, 1),
+    IO_VIRTUAL_THREAD(port -> {
+        System.setProperty("demo.io.virtualThreads", "true");
+        IoEchoThreadPoolServer.main(args(port));
+    }, true, 1),
+    NIO_BLOCKING(port -> NioBlockingEchoServer.main(args(port)), true, 1),
+    NIO_NON_BLOCKING(port -> NioNonBlockingEchoServer.main(args(port)), true, 1),
+    NIO_SELECTOR(port -> NioSelectorEchoServer.main(args(port)), true, 1),
+    NIO_SELECTOR_TLS(port -> NioSelectorTlsEchoServer.main(args(port)), true, 1),
+    NIO_MULTIPLEXING(port -> NioMultiplexingEchoServer.main(args(port)), true, 8),
+    NIO_REUSE_PORT(port -> NioReusePortEchoServer.main(args(port)), true, 1),
+    NIO2_FUTURE(port -> Nio2EchoFutureServer.main(args(port)), true, 1),
+    NIO2_FUTURE_THREAD_POOL(port -> Nio2EchoFutureServerThreadPool.main(args(port)), true, 1),
+    NIO2_COMPLETABLE_FUTURE(port -> Nio2EchoCompletableFutureServer.main(args(port)), true, 1),
+    NIO2_COMPLETION_HANDLER(port -> Nio2CompletionHandlerEchoServer.main(args(port)), false, 1),
+    REACTOR(port -> new ReactorInitiator().initiateReactiveServer(port, Runtime.getRuntime().availableProcessors()), true, 1),
+    REACTOR_EPOLL(port -> {
+        System.setProperty("demo.reactor.transport", "epoll");
+        new ReactorInitiator().initiateReactiveServer(port, Runtime.getRuntime().availableProcessors());
+    }, true, 1),
+    PROACTOR(port -> new ProactorInitiator().initiateProactiveServer(port), true, 1),
+    PROACTOR_TLS(port -> {
+        System.setProperty("demo.tls", "true");
+        new ProactorInitiator().initiateProactiveServer(port);
+    }, true, 1);
+
+    private final Starter starter;
+    private final boolean keepAlive;
+    private final int listeners;
+
+    EchoServer(Starter starter, boolean keepAlive, int listeners) {
+        this.starter = starter;
+        this.keepAlive = keepAlive;
+        this.listeners = listeners;
+    }
+
+    // echoes more than one message per connection
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    // spreads connections over all listening ports of servers that bind several of them
+    public int port(int basePort, int connection) {
+        return basePort + connection % listeners;
+    }
+
+    // the servers have no stop method, so they run on a daemon thread until the benchmark fork exits
+    public int start() throws IOException, InterruptedException {
+        int port = freePort();
+
+        Thread thread = new Thread(() -> {
+            try {
+                starter.start(port);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "echo-server-" + name());
+        thread.setDaemon(true);
+        thread.start();
+
+        awaitListening(port);
+        return port;
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    // NioNonBlockingEchoServer polls for connections every 5 seconds
+    static void awaitListening(int port) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (true) {
+            try {
+                SocketChannel.open(new InetSocketAddress("localhost", port)).close();
+                return;
+            } catch (IOException e) {
+                if (System.nanoTime() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static String[] args(int port) {
+        return new String[]{String.valueOf(port)};
+    }
+
+    private interface Starter {
+
+        void start(int port) throws Exception;
+    }
+}
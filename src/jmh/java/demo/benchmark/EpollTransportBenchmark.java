@@ -0,0 +1,104 @@
+package demo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+// Round-trip latency of the reactor with the JDK Selector and with the edge-triggered epoll transport,
+// over a small number of active connections among a large number of connected ones.
+// 100k connections to one port need more than one source address (a loopback address has ~28k ephemeral ports)
+// and a raised open files limit (ulimit -n).
+@State(Scope.Benchmark)
+@Threads(8)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Dlogback.configurationFile=logback-benchmark.xml", "-Xmx2g",
+        "--enable-preview", "--add-exports=java.base/sun.nio.ch=ALL-UNNAMED"})
+public class EpollTransportBenchmark {
+
+    private static final int CONNECTIONS_PER_SOURCE_ADDRESS = 20_000;
+
+    @Param({"REACTOR", "REACTOR_EPOLL"})
+    public EchoServer server;
+
+    @Param({"10000", "100000"})
+    public int connections;
+
+    @Param({"1000"})
+    public int activeConnections;
+
+    @Param({"64"})
+    public int messageSize;
+
+    private int port;
+    private SocketChannel[] idle;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        port = server.start();
+
+        idle = new SocketChannel[Math.max(0, connections - activeConnections)];
+        for (int i = 0; i < idle.length; i++) {
+            SocketChannel socketChannel = SocketChannel.open();
+            socketChannel.bind(new InetSocketAddress("127.0.0." + (2 + i / CONNECTIONS_PER_SOURCE_ADDRESS), 0));
+            socketChannel.connect(new InetSocketAddress("127.0.0.1", port));
+            idle[i] = socketChannel;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (SocketChannel socketChannel : idle) {
+            socketChannel.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        private EchoConnection[] connections;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void connect(EpollTransportBenchmark benchmark, BenchmarkParams params) throws IOException {
+            connections = new EchoConnection[Math.max(1, benchmark.activeConnections / params.getThreads())];
+            for (int i = 0; i < connections.length; i++) {
+                connections[i] = new EchoConnection(benchmark.port, benchmark.messageSize);
+                connections[i].connect();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            for (EchoConnection connection : connections) {
+                connection.close();
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int roundTrip(Client client) throws IOException {
+        EchoConnection connection = client.connections[client.next];
+        client.next = (client.next + 1) % client.connections.length;
+        return connection.roundTrip();
+    }
+}
@@ -0,0 +1,130 @@
+package demo.benchmark;
+
+import demo.nio.server.selector.NioSelectorFileServer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+// Compares the zero-copy path (sendfile for large files, mapped buffers for small ones) with the read/write copy path.
+// The bytes counter is reported per second, so it shows the transfer rate directly;
+// run with -prof perfnorm or compare process CPU time to see the CPU cost per byte.
+@State(Scope.Benchmark)
+@Threads(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class FileServerBenchmark {
+
+    @Param({"true", "false"})
+    public String zeroCopy;
+
+    @Param({"4096", "1048576", "268435456"})
+    public int fileSize;
+
+    private Path directory;
+    private SocketChannel socketChannel;
+    private ByteBuffer request;
+    private final ByteBuffer header = ByteBuffer.allocateDirect(Long.BYTES);
+    private final ByteBuffer input = ByteBuffer.allocateDirect(1024 * 1024);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        directory = Files.createTempDirectory("file-server-benchmark");
+        Path file = directory.resolve("blob");
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ByteBuffer chunk = ByteBuffer.allocateDirect(1024 * 1024);
+            for (long written = 0; written < fileSize; written += chunk.limit()) {
+                chunk.clear();
+                chunk.limit((int) Math.min(chunk.capacity(), fileSize - written));
+                fileChannel.write(chunk);
+            }
+        }
+
+        System.setProperty("demo.file.zeroCopy", zeroCopy);
+        int port = EchoServer.freePort();
+        Thread thread = new Thread(() -> {
+            try {
+                NioSelectorFileServer.main(new String[]{String.valueOf(port), directory.toString()});
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "file-server");
+        thread.setDaemon(true);
+        thread.start();
+        EchoServer.awaitListening(port);
+
+        socketChannel = SocketChannel.open(new InetSocketAddress("localhost", port));
+        request = ByteBuffer.wrap("blob\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        socketChannel.close();
+        Files.delete(directory.resolve("blob"));
+        Files.delete(directory);
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Transferred {
+
+        public long bytes;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long download(Transferred transferred) throws IOException {
+        request.rewind();
+        while (request.hasRemaining()) {
+            socketChannel.write(request);
+        }
+
+        header.clear();
+        while (header.hasRemaining()) {
+            if (socketChannel.read(header) < 0) {
+                throw new IOException("Connection closed by server");
+            }
+        }
+        long size = header.getLong(0);
+
+        long received = 0;
+        while (received < size) {
+            input.clear();
+            if (input.remaining() > size - received) {
+                input.limit((int) (size - received));
+            }
+            int read = socketChannel.read(input);
+            if (read < 0) {
+                throw new IOException("Connection closed by server");
+            }
+            received += read;
+        }
+
+        transferred.bytes += received;
+        return received;
+    }
+}
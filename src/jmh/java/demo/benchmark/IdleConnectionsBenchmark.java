@@ -0,0 +1,124 @@
+package demo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Round-trip latency over the active connections while the server also holds a large number of idle ones.
+// The memory footprint of the whole process is printed at the end of the trial.
+// 100k connections to one port need more than one source address (a loopback address has ~28k ephemeral ports)
+// and a raised open files limit (ulimit -n).
+@State(Scope.Benchmark)
+@Threads(8)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Dlogback.configurationFile=logback-benchmark.xml", "-Xmx2g"})
+public class IdleConnectionsBenchmark {
+
+    private static final int CONNECTIONS_PER_SOURCE_ADDRESS = 20_000;
+
+    @Param({"IO_THREAD_POOL", "IO_VIRTUAL_THREAD", "NIO2_FUTURE_THREAD_POOL", "NIO2_COMPLETABLE_FUTURE"})
+    public EchoServer server;
+
+    @Param({"0", "100000"})
+    public int idleConnections;
+
+    @Param({"10000"})
+    public int activeConnections;
+
+    @Param({"64"})
+    public int messageSize;
+
+    private int port;
+    private SocketChannel[] idle;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        port = server.start();
+
+        idle = new SocketChannel[idleConnections];
+        for (int i = 0; i < idleConnections; i++) {
+            SocketChannel socketChannel = SocketChannel.open();
+            socketChannel.bind(new InetSocketAddress("127.0.0." + (2 + i / CONNECTIONS_PER_SOURCE_ADDRESS), 0));
+            socketChannel.connect(new InetSocketAddress("127.0.0.1", port));
+            idle[i] = socketChannel;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("%n%s: %d idle + %d active connections, %d live threads, heap used %d MB, resident set %s%n",
+                server, idleConnections, activeConnections,
+                ManagementFactory.getThreadMXBean().getThreadCount(),
+                (runtime.totalMemory() - runtime.freeMemory()) >> 20,
+                residentSetSize());
+
+        for (SocketChannel socketChannel : idle) {
+            socketChannel.close();
+        }
+    }
+
+    private static String residentSetSize() throws IOException {
+        try (Stream<String> lines = Files.lines(Paths.get("/proc/self/status"))) {
+            return lines.filter(line -> line.startsWith("VmRSS:"))
+                    .map(line -> line.substring("VmRSS:".length()).trim())
+                    .findFirst()
+                    .orElse("unknown");
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        private EchoConnection[] connections;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void connect(IdleConnectionsBenchmark benchmark, BenchmarkParams params) throws IOException {
+            connections = new EchoConnection[Math.max(1, benchmark.activeConnections / params.getThreads())];
+            for (int i = 0; i < connections.length; i++) {
+                connections[i] = new EchoConnection(benchmark.port, benchmark.messageSize);
+                connections[i].connect();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            for (EchoConnection connection : connections) {
+                connection.close();
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int roundTrip(Client client) throws IOException {
+        EchoConnection connection = client.connections[client.next];
+        client.next = (client.next + 1) % client.connections.length;
+        return connection.roundTrip();
+    }
+}
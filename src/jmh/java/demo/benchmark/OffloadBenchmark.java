@@ -0,0 +1,97 @@
+package demo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Round-trip latency of fast messages while other clients send messages that take 100 us of CPU time to process,
+// with the processing on the dispatcher threads of the reactor (inline) or offloaded to a fixed pool, a work-stealing
+// ForkJoinPool or virtual threads. The connections are spread round-robin over the dispatchers, so with more clients
+// than cores fast and slow connections share dispatchers: compare the p99 of fast between inline and the executors.
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OffloadBenchmark {
+
+    @Param({"inline", "fixed", "forkjoin", "virtual"})
+    public String processing;
+
+    private int port;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        if (!processing.equals("inline")) {
+            System.setProperty("demo.processing.offload", "true");
+            System.setProperty("demo.processing.executor", processing);
+        }
+        System.setProperty("demo.processing.slowMicros", "100");
+
+        port = EchoServer.REACTOR.start();
+    }
+
+    @State(Scope.Thread)
+    public static class FastClient {
+
+        private EchoConnection connection;
+
+        @Setup(Level.Trial)
+        public void connect(OffloadBenchmark benchmark) throws IOException {
+            connection = new EchoConnection(benchmark.port, 64);
+            connection.connect();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            connection.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SlowClient {
+
+        private EchoConnection connection;
+
+        @Setup(Level.Trial)
+        public void connect(OffloadBenchmark benchmark) throws IOException {
+            connection = new EchoConnection(benchmark.port, 64, (byte) '!');
+            connection.connect();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public int fast(FastClient client) throws IOException {
+        return client.connection.roundTrip();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public int slow(SlowClient client) throws IOException {
+        return client.connection.roundTrip();
+    }
+}
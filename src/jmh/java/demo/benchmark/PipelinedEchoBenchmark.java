@@ -0,0 +1,106 @@
+package demo.benchmark;
+
+import demo.codec.Frames;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+// Every client sends a batch of small framed requests with one write and then reads all the responses.
+// The framed reactor either coalesces the responses of one selector iteration into one gathering write
+// or writes every response on its own; the score is requests per second.
+@State(Scope.Benchmark)
+@Threads(4)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(PipelinedEchoBenchmark.DEPTH)
+public class PipelinedEchoBenchmark {
+
+    static final int DEPTH = 64;
+
+    @Param({"16", "128"})
+    public int messageSize;
+
+    private int port;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        port = EchoServer.REACTOR.start();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        private SocketChannel socketChannel;
+        private ByteBuffer output;
+        private ByteBuffer input;
+
+        @Setup(Level.Trial)
+        public void connect(PipelinedEchoBenchmark benchmark) throws IOException {
+            socketChannel = SocketChannel.open(new InetSocketAddress("localhost", benchmark.port));
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            int frameLength = Frames.HEADER_LENGTH + benchmark.messageSize;
+            output = ByteBuffer.allocateDirect(DEPTH * frameLength);
+            input = ByteBuffer.allocateDirect(DEPTH * frameLength);
+            for (int i = 0; i < DEPTH; i++) {
+                output.putInt(benchmark.messageSize);
+                for (int j = 0; j < benchmark.messageSize; j++) {
+                    output.put((byte) ('a' + j % 26));
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            socketChannel.close();
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"-Dlogback.configurationFile=logback-benchmark.xml", "-Ddemo.codec.framing=true"})
+    public int coalescedWrites(Client client) throws IOException {
+        return pipeline(client);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"-Dlogback.configurationFile=logback-benchmark.xml", "-Ddemo.codec.framing=true", "-Ddemo.reactor.coalesceWrites=false"})
+    public int writePerResponse(Client client) throws IOException {
+        return pipeline(client);
+    }
+
+    private static int pipeline(Client client) throws IOException {
+        client.output.clear();
+        while (client.output.hasRemaining()) {
+            client.socketChannel.write(client.output);
+        }
+
+        client.input.clear();
+        while (client.input.hasRemaining()) {
+            if (client.socketChannel.read(client.input) < 0) {
+                throw new IOException("Connection closed by server");
+            }
+        }
+        return client.input.position();
+    }
+}
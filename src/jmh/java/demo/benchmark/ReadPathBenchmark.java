@@ -0,0 +1,64 @@
+package demo.benchmark;
+
+import demo.common.Demo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// What a server does with every received message before echoing it back:
+// the former path decodes the message into a String to log it and to compare it with "bye",
+// the current one scans the bytes in place and logs only a sample of the messages at DEBUG level.
+// Run with -prof gc: the current path should show gc.alloc.rate.norm of 0 B/op.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class ReadPathBenchmark extends Demo {
+
+    @Param({"16", "1024"})
+    public int messageSize;
+
+    private ByteBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        buffer = ByteBuffer.allocateDirect(messageSize);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) ('a' + buffer.position() % 26));
+        }
+        buffer.flip();
+    }
+
+    @Benchmark
+    public boolean decode() {
+        byte[] bytes = new byte[buffer.limit()];
+        buffer.get(bytes);
+        String message = new String(bytes, StandardCharsets.UTF_8);
+        logger.debug("Echo server received: {}", message);
+        buffer.flip();
+        return message.trim().equals("bye");
+    }
+
+    @Benchmark
+    public boolean scan() {
+        if (logSampled()) {
+            logger.debug("Echo server read: {} byte(s)", buffer.remaining());
+        }
+        return isBye(buffer);
+    }
+}
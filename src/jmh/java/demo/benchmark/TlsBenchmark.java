@@ -0,0 +1,120 @@
+package demo.benchmark;
+
+import demo.tls.Tls;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+// The cost of TLS on the selector loop and on the proactor against the same servers in plaintext:
+// handshake connects, makes one round trip of 16 bytes and closes the connection, with a full handshake
+// or with a resumed one (from the session ticket of the previous connection); bulk echoes 16 KB messages,
+// one record each, over a kept connection. The plaintext servers ignore the resumption parameter.
+// The clients are blocking SSLSockets of the same context as the server, which trusts its self-signed certificate.
+@State(Scope.Benchmark)
+@Threads(4)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class TlsBenchmark {
+
+    @Param({"NIO_SELECTOR", "NIO_SELECTOR_TLS", "PROACTOR", "PROACTOR_TLS"})
+    public EchoServer server;
+
+    @Param({"false", "true"})
+    public boolean resumption;
+
+    private int port;
+    private boolean tls;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        port = server.start();
+        tls = server.name().endsWith("_TLS");
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        private final byte[] request = new byte[16];
+        private final byte[] message = new byte[16 * 1024];
+        private final byte[] response = new byte[16 * 1024];
+
+        private Socket socket;
+
+        @Setup(Level.Trial)
+        public void setUp(TlsBenchmark benchmark) throws IOException {
+            socket = benchmark.open();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int handshake(Client client) throws IOException {
+        try (Socket socket = open()) {
+            int read = roundTrip(socket, client.request, client.response);
+            if (tls && !resumption) {
+                ((SSLSocket) socket).getSession().invalidate(); // the next connection cannot resume it
+            }
+            return read;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int bulk(Client client) throws IOException {
+        return roundTrip(client.socket, client.message, client.response);
+    }
+
+    private Socket open() throws IOException {
+        Socket socket = tls
+                ? Tls.context().getSocketFactory().createSocket("localhost", port) // the session cache key is the host and port
+                : new Socket("localhost", port);
+        socket.setTcpNoDelay(true);
+        if (tls) {
+            ((SSLSocket) socket).startHandshake();
+        }
+        return socket;
+    }
+
+    private static int roundTrip(Socket socket, byte[] request, byte[] response) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(request);
+        out.flush();
+
+        InputStream in = socket.getInputStream();
+        int read = 0;
+        while (read < request.length) {
+            int n = in.read(response, read, request.length - read);
+            if (n < 0) {
+                throw new IOException("Connection closed by the server");
+            }
+            read += n;
+        }
+        return read;
+    }
+}
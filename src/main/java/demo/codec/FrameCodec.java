@@ -0,0 +1,28 @@
+package demo.codec;
+
+import demo.journal.Journal;
+
+// Decoder and encoder of one connection, to be attached to its selection key, and the id of the connection in the journal
+public class FrameCodec {
+
+    private final int journalId = Journal.newConnection();
+
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final FrameEncoder encoder = new FrameEncoder();
+
+    public FrameDecoder decoder() {
+        return decoder;
+    }
+
+    public FrameEncoder encoder() {
+        return encoder;
+    }
+
+    public int journalId() {
+        return journalId;
+    }
+
+    public void release() {
+        decoder.release();
+    }
+}
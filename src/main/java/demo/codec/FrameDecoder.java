@@ -0,0 +1,91 @@
+package demo.codec;
+
+import demo.common.BufferPool;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ScatteringByteChannel;
+
+// Splits the bytes read from a channel into frames. Every complete frame in the buffer is returned
+// as a slice of it, so frames are not copied; only the beginning of an incomplete frame is moved
+// to the start of the buffer by compact(), and the buffer grows when that frame does not fit into it.
+public class FrameDecoder {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private ByteBuffer buffer = BufferPool.acquire(INITIAL_CAPACITY); // in write mode
+    private int consumed; // index of the first byte that has not been returned as a frame
+
+    public int read(ScatteringByteChannel channel) throws IOException {
+        return channel.read(buffer);
+    }
+
+    // for asynchronous channels, which read into the buffer themselves
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    // returns the payload of the next complete frame or null;
+    // the payload is valid until the next call of compact()
+    public ByteBuffer nextFrame() throws ProtocolException {
+        int available = buffer.position() - consumed;
+        if (available < Frames.HEADER_LENGTH) {
+            return null;
+        }
+
+        int length = buffer.getInt(consumed);
+        if (length < 0 || length > Frames.MAX_FRAME_LENGTH) {
+            throw new ProtocolException("Invalid frame length: " + length);
+        }
+        if (available < Frames.HEADER_LENGTH + length) {
+            return null;
+        }
+
+        ByteBuffer payload = buffer.slice(consumed + Frames.HEADER_LENGTH, length);
+        consumed += Frames.HEADER_LENGTH + length;
+        return payload;
+    }
+
+    // discards the returned frames and makes room for the rest of an incomplete frame
+    public void compact() {
+        if (consumed > 0) {
+            buffer.flip();
+            buffer.position(consumed);
+            buffer.compact();
+            consumed = 0;
+        }
+
+        if (buffer.position() >= Frames.HEADER_LENGTH) {
+            int length = buffer.getInt(0);
+            int frameLength = Frames.HEADER_LENGTH + length;
+            if (length >= 0 && length <= Frames.MAX_FRAME_LENGTH && frameLength > buffer.capacity()) {
+                ByteBuffer grown = BufferPool.acquire(frameLength);
+                buffer.flip();
+                grown.put(buffer);
+                BufferPool.release(buffer);
+                buffer = grown;
+            }
+        }
+    }
+
+    // prepares a released decoder for another connection
+    public void reset() {
+        consumed = 0;
+        if (buffer == null) {
+            buffer = BufferPool.acquire(INITIAL_CAPACITY);
+        } else {
+            buffer.clear();
+        }
+    }
+
+    // nothing more can be read before compact()
+    public boolean isFull() {
+        return !buffer.hasRemaining();
+    }
+
+    public void release() {
+        BufferPool.release(buffer);
+        buffer = null;
+    }
+}
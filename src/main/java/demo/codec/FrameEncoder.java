@@ -0,0 +1,130 @@
+package demo.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+// Queues frames as header and payload buffers, so any number of frames is written by one gathering write
+// without copying the payloads. Headers are at even indexes, payloads at odd ones; header buffers are reused.
+public class FrameEncoder {
+
+    private ByteBuffer[] buffers = new ByteBuffer[32];
+    private int offset;
+    private int length;
+
+    private final ArrayDeque<ByteBuffer> headers = new ArrayDeque<>();
+
+    // the payload must not be changed until it has been written
+    public void add(ByteBuffer payload) {
+        int end = offset + length;
+        if (end + 2 > buffers.length) {
+            int shift = offset & ~1; // keeps headers at even indexes
+            if (shift > 0) {
+                System.arraycopy(buffers, shift, buffers, 0, end - shift);
+                Arrays.fill(buffers, end - shift, end, null);
+                offset -= shift;
+                end -= shift;
+            }
+            if (end + 2 > buffers.length) {
+                buffers = Arrays.copyOf(buffers, buffers.length * 2);
+            }
+        }
+
+        ByteBuffer header = headers.pollFirst();
+        if (header == null) {
+            header = ByteBuffer.allocateDirect(Frames.HEADER_LENGTH);
+        }
+        header.clear();
+        header.putInt(payload.remaining());
+        header.flip();
+
+        buffers[end] = header;
+        buffers[end + 1] = payload;
+        length += 2;
+    }
+
+    // returns the number of bytes written, written() tells whether every queued frame has been
+    public long write(GatheringByteChannel channel) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        return channel.write(buffers, offset, length); // can be non-blocking
+    }
+
+    // for asynchronous channels: write(buffers(), offset(), length(), ...) and then call written() on completion
+    public ByteBuffer[] buffers() {
+        return buffers;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    // drops the frames that have not been written, e.g. when the connection is closed
+    public void clear() {
+        for (int i = offset; i < offset + length; i++) {
+            if ((i & 1) == 0) {
+                headers.addFirst(buffers[i]);
+            }
+            buffers[i] = null;
+        }
+        offset = 0;
+        length = 0;
+    }
+
+    // the bytes of the payloads of the last frames that have not been written, at most the given number of frames
+    public int remaining(int frames) {
+        int remaining = 0;
+        for (int i = firstPayload(frames); i < offset + length; i += 2) {
+            remaining += buffers[i].remaining();
+        }
+        return remaining;
+    }
+
+    // copies those payloads into the target buffer and queues slices of it instead, so the buffer they were sliced from
+    // can be reused before they have been written; returns the last slice that is not empty, null if there is none
+    public ByteBuffer moveTo(int frames, ByteBuffer target) {
+        ByteBuffer last = null;
+        for (int i = firstPayload(frames); i < offset + length; i += 2) {
+            ByteBuffer slice = target.slice(target.position(), buffers[i].remaining());
+            target.put(buffers[i]);
+            buffers[i] = slice;
+            if (slice.hasRemaining()) {
+                last = slice;
+            }
+        }
+        return last;
+    }
+
+    // the queue always ends with a payload, and payloads are two indexes apart
+    private int firstPayload(int frames) {
+        int payloads = Math.min(frames, (length + 1) / 2);
+        return offset + length + 1 - 2 * payloads;
+    }
+
+    // drops the buffers that have been written completely and returns true when nothing is left
+    public boolean written() {
+        while (length > 0 && !buffers[offset].hasRemaining()) {
+            if ((offset & 1) == 0) {
+                headers.addFirst(buffers[offset]);
+            }
+            buffers[offset] = null;
+            offset++;
+            length--;
+        }
+        if (length == 0) {
+            offset = 0;
+        }
+        return length == 0;
+    }
+}
@@ -0,0 +1,15 @@
+package demo.codec;
+
+// A frame is a 4-byte big-endian payload length followed by the payload.
+// -Ddemo.codec.framing=true switches the selector and reactor echo servers from echoing whatever one read returns
+// to echoing whole frames; -Ddemo.codec.maxFrameLength limits the payload length a peer may announce.
+public class Frames {
+
+    public static final int HEADER_LENGTH = Integer.BYTES;
+    public static final int MAX_FRAME_LENGTH = Integer.getInteger("demo.codec.maxFrameLength", 16 * 1024 * 1024);
+
+    public static final boolean ENABLED = Boolean.getBoolean("demo.codec.framing");
+
+    private Frames() {
+    }
+}
@@ -0,0 +1,129 @@
+package demo.common;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+// -Ddemo.buffers=heap switches every server back to plain heap buffers for comparison
+// -Ddemo.buffers.leakDetection=true records where every outstanding buffer was acquired
+public class BufferPool extends Demo {
+
+    private static final int[] SIZE_CLASSES = {1024, 4 * 1024, 16 * 1024, 64 * 1024};
+    private static final int THREAD_CACHE_CAPACITY = 64;
+
+    private static final boolean POOLED = !"heap".equals(System.getProperty("demo.buffers", "pooled"));
+    private static final boolean LEAK_DETECTION = Boolean.getBoolean("demo.buffers.leakDetection");
+
+    private static final Queue<ByteBuffer>[] sharedPools = newSharedPools();
+    private static final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCaches = ThreadLocal.withInitial(BufferPool::newThreadCache);
+
+    private static final LongAdder outstanding = new LongAdder();
+    private static final Map<ByteBuffer, Throwable> allocationSites = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    static {
+        if (LEAK_DETECTION) {
+            Runtime.getRuntime().addShutdownHook(new Thread(BufferPool::reportLeaks, "buffer-leak-reporter"));
+        }
+    }
+
+    public static ByteBuffer acquire(int capacity) {
+        ByteBuffer buffer = POOLED ? acquireDirect(capacity) : ByteBuffer.allocate(capacity);
+
+        outstanding.increment();
+        if (LEAK_DETECTION) {
+            allocationSites.put(buffer, new Throwable("Buffer acquired here"));
+        }
+        return buffer;
+    }
+
+    public static void release(ByteBuffer buffer) {
+        if (LEAK_DETECTION && allocationSites.remove(buffer) == null) {
+            logger.warn("Buffer released twice or not acquired from the pool", new Throwable("Buffer released here"));
+            return;
+        }
+        outstanding.decrement();
+
+        if (POOLED) {
+            releaseDirect(buffer);
+        }
+    }
+
+    public static long outstanding() {
+        return outstanding.sum();
+    }
+
+    public static void reportLeaks() {
+        synchronized (allocationSites) {
+            for (Throwable allocationSite : allocationSites.values()) {
+                logger.warn("Buffer was never released", allocationSite);
+            }
+        }
+    }
+
+    private static ByteBuffer acquireDirect(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass < 0) {
+            return ByteBuffer.allocateDirect(capacity); // too large to pool
+        }
+
+        ByteBuffer buffer = threadCaches.get()[sizeClass].pollFirst();
+        if (buffer == null) {
+            buffer = sharedPools[sizeClass].poll();
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(SIZE_CLASSES[sizeClass]);
+        }
+        buffer.limit(capacity);
+        return buffer;
+    }
+
+    private static void releaseDirect(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+        int sizeClass = sizeClass(buffer.capacity());
+        if (sizeClass < 0 || SIZE_CLASSES[sizeClass] != buffer.capacity()) {
+            return;
+        }
+
+        buffer.clear();
+        ArrayDeque<ByteBuffer> threadCache = threadCaches.get()[sizeClass];
+        if (threadCache.size() < THREAD_CACHE_CAPACITY) {
+            threadCache.addFirst(buffer);
+        } else {
+            sharedPools[sizeClass].offer(buffer);
+        }
+    }
+
+    private static int sizeClass(int capacity) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (capacity <= SIZE_CLASSES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Queue<ByteBuffer>[] newSharedPools() {
+        Queue<ByteBuffer>[] pools = new Queue[SIZE_CLASSES.length];
+        for (int i = 0; i < pools.length; i++) {
+            pools[i] = new ConcurrentLinkedQueue<>();
+        }
+        return pools;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayDeque<ByteBuffer>[] newThreadCache() {
+        ArrayDeque<ByteBuffer>[] cache = new ArrayDeque[SIZE_CLASSES.length];
+        for (int i = 0; i < cache.length; i++) {
+            cache[i] = new ArrayDeque<>(THREAD_CACHE_CAPACITY);
+        }
+        return cache;
+    }
+}
@@ -0,0 +1,46 @@
+package demo.common;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The channel group of the NIO.2 servers, whose threads run the completion handlers:
+// -Ddemo.nio2.group=fixed (default) is a fixed pool of -Ddemo.nio2.threads threads (the number of cores by default),
+//   each of them waits for I/O events and runs the handlers of the events it gets itself
+// -Ddemo.nio2.group=cached is a cached pool started with -Ddemo.nio2.threads threads (1 by default),
+//   the I/O events are waited for by internal threads that hand the handlers over to the pool
+// -Ddemo.nio2.group=default is the JVM-wide default group, tunable only with the java.nio.channels.DefaultThreadPool.* properties
+public class ChannelGroups extends Demo {
+
+    // returns null for the default group, which is what AsynchronousServerSocketChannel.open(null) expects
+    public static AsynchronousChannelGroup open() throws IOException {
+        String group = System.getProperty("demo.nio2.group", "fixed");
+        switch (group) {
+            case "fixed":
+                int threads = Integer.getInteger("demo.nio2.threads", Runtime.getRuntime().availableProcessors());
+                logger.info("Channel group: fixed thread pool of {} thread(s)", threads);
+                return AsynchronousChannelGroup.withFixedThreadPool(threads, threadFactory("nio2-fixed-"));
+            case "cached":
+                int initialSize = Integer.getInteger("demo.nio2.threads", 1);
+                logger.info("Channel group: cached thread pool, initial size {}", initialSize);
+                return AsynchronousChannelGroup.withCachedThreadPool(Executors.newCachedThreadPool(threadFactory("nio2-cached-")), initialSize);
+            case "default":
+                logger.info("Channel group: default");
+                return null;
+            default:
+                throw new IllegalArgumentException("Unknown channel group: " + group);
+        }
+    }
+
+    // daemon threads like the ones of the default group
+    static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,98 @@
+package demo.common;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear histogram that any number of threads record into without locking: every bucket is a LongAdder,
+// which stripes its count over cells under contention. 16 linear sub-buckets per power of two keep every value
+// with a relative error below 7%, coarser than the load generator's LatencyHistogram, so that it fits in a few pages.
+// The percentiles are computed from a snapshot that is only approximately consistent while values are recorded.
+public class ConcurrentHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_HALF_COUNT = 1 << (SUB_BUCKET_BITS - 1);
+    private static final int BUCKET_COUNT = Long.SIZE - SUB_BUCKET_BITS + 1;
+
+    private final LongAdder[] counts = new LongAdder[(BUCKET_COUNT + 1) * SUB_BUCKET_HALF_COUNT];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator maxValue = new LongAccumulator(Math::max, 0);
+
+    public ConcurrentHistogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[index(value)].increment();
+        sum.add(value);
+        maxValue.accumulate(value);
+    }
+
+    public Snapshot snapshot() {
+        long[] snapshot = new long[counts.length];
+        long totalCount = 0;
+        for (int i = 0; i < counts.length; i++) {
+            snapshot[i] = counts[i].sum();
+            totalCount += snapshot[i];
+        }
+        return new Snapshot(snapshot, totalCount, sum.sum(), maxValue.get());
+    }
+
+    private static int index(long value) {
+        int bucket = Math.max(0, Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        int subBucket = (int) (value >>> bucket);
+        return bucket * SUB_BUCKET_HALF_COUNT + subBucket;
+    }
+
+    private static long highestEquivalentValue(int index) {
+        int bucket = Math.max(0, index / SUB_BUCKET_HALF_COUNT - 1);
+        long subBucket = index - bucket * SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << bucket) - 1;
+    }
+
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long totalCount;
+        private final long sum;
+        private final long maxValue;
+
+        Snapshot(long[] counts, long totalCount, long sum, long maxValue) {
+            this.counts = counts;
+            this.totalCount = totalCount;
+            this.sum = sum;
+            this.maxValue = maxValue;
+        }
+
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        public long getMaxValue() {
+            return maxValue;
+        }
+
+        public double getMean() {
+            return totalCount == 0 ? 0 : (double) sum / totalCount;
+        }
+
+        public long getValueAtPercentile(double percentile) {
+            if (totalCount == 0) {
+                return 0;
+            }
+            long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+            long count = 0;
+            for (int i = 0; i < counts.length; i++) {
+                count += counts[i];
+                if (count >= countAtPercentile) {
+                    return Math.min(highestEquivalentValue(i), maxValue);
+                }
+            }
+            return maxValue;
+        }
+    }
+}
@@ -3,12 +3,51 @@ package demo.common;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 public class Demo {
 
     protected static final Logger logger = LoggerFactory.getLogger(Demo.class);
 
+    // on average one of this many messages is logged at DEBUG level
+    private static final int LOG_SAMPLE_RATE = Integer.getInteger("demo.log.sampleRate", 1024);
+
+    protected static int port(String[] args) {
+        return args.length > 0 ? Integer.parseInt(args[0]) : 7000;
+    }
+
+    protected static boolean logSampled() {
+        return logger.isDebugEnabled() && ThreadLocalRandom.current().nextInt(LOG_SAMPLE_RATE) == 0;
+    }
+
+    // same as new String(bytes, offset, length, UTF_8).trim().equals("bye") without decoding the bytes
+    protected static boolean isBye(byte[] bytes, int offset, int length) {
+        int start = offset;
+        int end = offset + length;
+        while (start < end && (bytes[start] & 0xff) <= ' ') {
+            start++;
+        }
+        while (end > start && (bytes[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        return end - start == 3 && bytes[start] == 'b' && bytes[start + 1] == 'y' && bytes[start + 2] == 'e';
+    }
+
+    // the same for the bytes between the position and the limit of the buffer, which are left unchanged
+    protected static boolean isBye(ByteBuffer buffer) {
+        int start = buffer.position();
+        int end = buffer.limit();
+        while (start < end && (buffer.get(start) & 0xff) <= ' ') {
+            start++;
+        }
+        while (end > start && (buffer.get(end - 1) & 0xff) <= ' ') {
+            end--;
+        }
+        return end - start == 3 && buffer.get(start) == 'b' && buffer.get(start + 1) == 'y' && buffer.get(start + 2) == 'e';
+    }
+
     protected static void sleep(int milliseconds) {
         try {
             TimeUnit.MILLISECONDS.sleep(milliseconds);
@@ -0,0 +1,55 @@
+package demo.common;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// -Ddemo.idleTimeoutMillis closes connections that have neither read nor written anything for that long
+// (0, the default, never closes them). The timeouts are kept in a timing wheel with 1/64 of the timeout per tick.
+//
+// An event loop drives its own wheel from newWheel(). The NIO.2 servers, whose completion handlers run on any thread
+// of the channel group, share an instance of this class instead: one daemon thread expires its wheel every tick,
+// so there is no scheduled task per connection, and the read/write paths only record the time of their last activity.
+public class IdleTimeouts<T> {
+
+    public static final long TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("demo.idleTimeoutMillis", 0));
+
+    private static final long TICK_NANOS = Math.max(TimeUnit.MILLISECONDS.toNanos(1), TIMEOUT_NANOS / 64);
+    private static final int BUCKET_COUNT = 128;
+
+    private final TimingWheel<T> wheel = newWheel(System.nanoTime());
+    private final Consumer<T> handler;
+    private final String name;
+
+    public IdleTimeouts(String name, Consumer<T> handler) {
+        this.name = name;
+        this.handler = handler;
+    }
+
+    public static boolean isEnabled() {
+        return TIMEOUT_NANOS > 0;
+    }
+
+    public static <T> TimingWheel<T> newWheel(long now) {
+        return new TimingWheel<>(TICK_NANOS, BUCKET_COUNT, now);
+    }
+
+    public void start() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(ChannelGroups.threadFactory(name));
+        executor.scheduleAtFixedRate(this::expire, TICK_NANOS, TICK_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized void schedule(TimingWheel.Timeout<T> timeout, long deadline) {
+        wheel.schedule(timeout, deadline);
+    }
+
+    public synchronized void cancel(TimingWheel.Timeout<T> timeout) {
+        wheel.cancel(timeout);
+    }
+
+    // the handler runs on the timeout thread while holding the lock, so it may schedule the expired timeout again
+    private synchronized void expire() {
+        wheel.expire(System.nanoTime(), handler);
+    }
+}
@@ -0,0 +1,174 @@
+package demo.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Graceful shutdown of a server, without spin loops:
+// stop() may be called from any thread (a "bye" message, the shutdown hook on SIGTERM) and runs the stop actions:
+// the server channels are closed, so no connection is accepted any more and a blocked accept() returns,
+// and the selectors are woken up, so their loops notice the stop without waiting for the next event.
+// The server then drains its connections: the responses already read are written, no further request is read,
+// and everything still open when -Ddemo.shutdownTimeoutMillis (5000 by default) have passed since stop() is closed.
+public class Lifecycle extends Demo {
+
+    private static final long SHUTDOWN_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("demo.shutdownTimeoutMillis", 5000));
+
+    private final List<Runnable> stopActions = new CopyOnWriteArrayList<>();
+    private final CountDownLatch terminated = new CountDownLatch(1);
+
+    private volatile boolean active = true;
+    private volatile long deadline;
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public void onStop(Runnable action) {
+        stopActions.add(action);
+    }
+
+    public void closeOnStop(Closeable closeable) {
+        onStop(() -> {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                logger.error("Exception during closing", e);
+            }
+        });
+    }
+
+    public void wakeUpOnStop(Selector selector) {
+        onStop(selector::wakeup);
+    }
+
+    // the JVM exits only after the server has called terminated() or the shutdown timeout has passed
+    public void stopOnShutdown() {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stop();
+            try {
+                terminated.await(remainingNanos(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "shutdown"));
+    }
+
+    public synchronized void stop() {
+        if (!active) {
+            return;
+        }
+        deadline = System.nanoTime() + SHUTDOWN_TIMEOUT_NANOS;
+        active = false;
+        logger.info("Server is stopping");
+
+        for (Runnable action : stopActions) {
+            action.run();
+        }
+    }
+
+    public void terminated() {
+        terminated.countDown();
+    }
+
+    // zero before stop() and after the deadline
+    public long remainingNanos() {
+        return active ? 0 : Math.max(0, deadline - System.nanoTime());
+    }
+
+    // lets the tasks already submitted finish until the deadline and interrupts the ones still running after it
+    public boolean awaitTermination(ExecutorService executorService) throws InterruptedException {
+        executorService.shutdown();
+        if (executorService.awaitTermination(remainingNanos(), TimeUnit.NANOSECONDS)) {
+            return true;
+        }
+        List<Runnable> neverStarted = executorService.shutdownNow();
+        logger.warn("Shutdown timeout passed, {} task(s) interrupted or never started", neverStarted.size());
+        return false;
+    }
+
+    // For a selector loop after stop(): the channels with a response still to write get OP_WRITE only
+    // and are closed once the writer has written it all (that is, has set OP_READ again);
+    // the other channels are closed at once, and whatever is left is closed at the deadline.
+    public void drain(Selector selector, KeyHandler writer, KeyHandler closer) throws IOException {
+        List<SelectionKey> pending = new ArrayList<>();
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid()) {
+                continue;
+            }
+            if (key.channel() instanceof ServerSocketChannel) {
+                key.channel().close();
+            } else if ((key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+                close(key, closer);
+            } else {
+                key.interestOps(SelectionKey.OP_WRITE);
+                pending.add(key);
+            }
+        }
+
+        long remainingNanos;
+        while (closeWritten(pending, closer) && (remainingNanos = remainingNanos()) > 0) {
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos))); // blocking
+
+            for (SelectionKey key : selector.selectedKeys()) {
+                if (key.isValid() && key.isWritable()) {
+                    try {
+                        writer.handle(key);
+                    } catch (IOException e) {
+                        close(key, closer);
+                    }
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+
+        int unwritten = 0;
+        for (SelectionKey key : pending) {
+            if (key.isValid()) {
+                unwritten++;
+                close(key, closer);
+            }
+        }
+        if (unwritten > 0) {
+            logger.warn("Shutdown timeout passed, {} connection(s) closed with unwritten data", unwritten);
+        }
+        selector.close();
+    }
+
+    // returns true while there are responses left to write
+    private static boolean closeWritten(List<SelectionKey> pending, KeyHandler closer) {
+        boolean writing = false;
+        for (SelectionKey key : pending) {
+            if (!key.isValid()) {
+                continue;
+            }
+            if ((key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+                close(key, closer);
+            } else {
+                writing = true;
+            }
+        }
+        return writing;
+    }
+
+    private static void close(SelectionKey key, KeyHandler closer) {
+        try {
+            closer.handle(key);
+        } catch (IOException e) {
+            logger.error("Exception during socket closing", e);
+        }
+    }
+
+    public interface KeyHandler {
+
+        void handle(SelectionKey key) throws IOException;
+    }
+}
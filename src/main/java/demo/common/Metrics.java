@@ -0,0 +1,207 @@
+package demo.common;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// -Ddemo.metrics=true makes the servers count connections, bytes, select loop iterations and selected keys,
+// record how long their handlers take and report the depths of their queues. The counters are LongAdders,
+// so the I/O threads never contend on one cache line; when disabled, every method returns at the ENABLED check,
+// which the JIT folds away. The metrics are exposed as the demo:type=Metrics MXBean and logged
+// every -Ddemo.metrics.dumpIntervalSeconds (10 by default, 0 to never log them).
+public class Metrics extends Demo implements MetricsMXBean {
+
+    private static final boolean ENABLED = Boolean.getBoolean("demo.metrics");
+    private static final long DUMP_INTERVAL_SECONDS = Long.getLong("demo.metrics.dumpIntervalSeconds", 10);
+
+    private static final LongAdder accepted = new LongAdder();
+    private static final LongAdder closed = new LongAdder();
+    private static final LongAdder bytesRead = new LongAdder();
+    private static final LongAdder bytesWritten = new LongAdder();
+    private static final LongAdder selects = new LongAdder();
+    private static final LongAdder selectedKeys = new LongAdder();
+    private static final ConcurrentHistogram handlerLatency = new ConcurrentHistogram();
+    private static final Map<String, LongSupplier> queues = new ConcurrentHashMap<>();
+
+    // the totals at the previous dump, to log rates
+    private long lastDumpAt = System.nanoTime();
+    private long lastAccepted;
+    private long lastBytesRead;
+    private long lastBytesWritten;
+    private long lastSelects;
+    private long lastSelectedKeys;
+
+    static {
+        if (ENABLED) {
+            Metrics metrics = new Metrics();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName("demo:type=Metrics"));
+            } catch (JMException e) {
+                logger.error("Exception during metrics registration", e);
+            }
+            if (DUMP_INTERVAL_SECONDS > 0) {
+                Executors.newSingleThreadScheduledExecutor(ChannelGroups.threadFactory("metrics-"))
+                        .scheduleAtFixedRate(metrics::dump, DUMP_INTERVAL_SECONDS, DUMP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    public static void connectionAccepted() {
+        if (ENABLED) {
+            accepted.increment();
+        }
+    }
+
+    public static void connectionClosed() {
+        if (ENABLED) {
+            closed.increment();
+        }
+    }
+
+    public static void bytesRead(long bytes) {
+        if (ENABLED && bytes > 0) {
+            bytesRead.add(bytes);
+        }
+    }
+
+    public static void bytesWritten(long bytes) {
+        if (ENABLED && bytes > 0) {
+            bytesWritten.add(bytes);
+        }
+    }
+
+    // called once per select loop iteration with the number of keys the select returned
+    public static void selected(int keys) {
+        if (ENABLED) {
+            selects.increment();
+            selectedKeys.add(keys);
+        }
+    }
+
+    // long start = Metrics.handlerStarted(); ...handle the event... Metrics.handlerFinished(start);
+    public static long handlerStarted() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    public static void handlerFinished(long start) {
+        if (ENABLED) {
+            handlerLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    // the depth is only read when the metrics are dumped or queried over JMX
+    public static void queue(String name, LongSupplier depth) {
+        if (ENABLED) {
+            queues.put(name, depth);
+        }
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return accepted.sum() - closed.sum();
+    }
+
+    @Override
+    public long getAcceptedConnections() {
+        return accepted.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getSelectLoopIterations() {
+        return selects.sum();
+    }
+
+    @Override
+    public long getSelectedKeys() {
+        return selectedKeys.sum();
+    }
+
+    @Override
+    public double getHandlerLatencyMeanMicros() {
+        return handlerLatency.snapshot().getMean() / 1e3;
+    }
+
+    @Override
+    public double getHandlerLatencyP50Micros() {
+        return handlerLatency.snapshot().getValueAtPercentile(50) / 1e3;
+    }
+
+    @Override
+    public double getHandlerLatencyP99Micros() {
+        return handlerLatency.snapshot().getValueAtPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getHandlerLatencyP999Micros() {
+        return handlerLatency.snapshot().getValueAtPercentile(99.9) / 1e3;
+    }
+
+    @Override
+    public double getHandlerLatencyMaxMicros() {
+        return handlerLatency.snapshot().getMaxValue() / 1e3;
+    }
+
+    @Override
+    public Map<String, Long> getQueueDepths() {
+        Map<String, Long> depths = new TreeMap<>();
+        queues.forEach((name, depth) -> depths.put(name, depth.getAsLong()));
+        return depths;
+    }
+
+    private void dump() {
+        long now = System.nanoTime();
+        double seconds = (now - lastDumpAt) / 1e9;
+        long accepted = getAcceptedConnections();
+        long bytesRead = getBytesRead();
+        long bytesWritten = getBytesWritten();
+        long selects = getSelectLoopIterations();
+        long selectedKeys = getSelectedKeys();
+        ConcurrentHistogram.Snapshot latency = handlerLatency.snapshot();
+
+        logger.info(String.format("Metrics: connections %d active %.1f accepted/s, MB/s %.2f in %.2f out, select loop %.0f iterations/s %.2f keys/select, "
+                        + "handler latency us: mean %.1f p50 %.1f p99 %.1f p99.9 %.1f max %.1f, queues %s",
+                getActiveConnections(),
+                (accepted - lastAccepted) / seconds,
+                (bytesRead - lastBytesRead) / seconds / (1 << 20),
+                (bytesWritten - lastBytesWritten) / seconds / (1 << 20),
+                (selects - lastSelects) / seconds,
+                selects == lastSelects ? 0 : (double) (selectedKeys - lastSelectedKeys) / (selects - lastSelects),
+                latency.getMean() / 1e3,
+                latency.getValueAtPercentile(50) / 1e3,
+                latency.getValueAtPercentile(99) / 1e3,
+                latency.getValueAtPercentile(99.9) / 1e3,
+                latency.getMaxValue() / 1e3,
+                getQueueDepths()));
+
+        lastDumpAt = now;
+        lastAccepted = accepted;
+        lastBytesRead = bytesRead;
+        lastBytesWritten = bytesWritten;
+        lastSelects = selects;
+        lastSelectedKeys = selectedKeys;
+    }
+}
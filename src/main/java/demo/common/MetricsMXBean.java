@@ -0,0 +1,31 @@
+package demo.common;
+
+import java.util.Map;
+
+// the view of Metrics in JConsole/VisualVM under demo:type=Metrics
+public interface MetricsMXBean {
+
+    long getActiveConnections();
+
+    long getAcceptedConnections();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getSelectLoopIterations();
+
+    long getSelectedKeys();
+
+    double getHandlerLatencyMeanMicros();
+
+    double getHandlerLatencyP50Micros();
+
+    double getHandlerLatencyP99Micros();
+
+    double getHandlerLatencyP999Micros();
+
+    double getHandlerLatencyMaxMicros();
+
+    Map<String, Long> getQueueDepths();
+}
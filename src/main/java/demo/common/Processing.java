@@ -0,0 +1,58 @@
+package demo.common;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Simulated request processing, to compare running it inline on the I/O threads with offloading it:
+// a message that starts with '!' takes -Ddemo.processing.slowMicros (1000 by default) of CPU time, any other takes none.
+// -Ddemo.processing.offload=true runs the processing and the following write on a separate executor,
+// so the I/O threads are never held up by it. -Ddemo.processing.executor chooses it: fixed (the default) is a fixed pool
+// and forkjoin a work-stealing ForkJoinPool in FIFO mode, both of -Ddemo.processing.threads threads (the number of cores
+// by default); virtual starts a virtual thread for every task.
+public class Processing extends Demo {
+
+    private static final long SLOW_NANOS = TimeUnit.MICROSECONDS.toNanos(Long.getLong("demo.processing.slowMicros", 1000));
+    private static final boolean OFFLOAD = Boolean.getBoolean("demo.processing.offload");
+    private static final int THREADS = Integer.getInteger("demo.processing.threads", Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService executor = OFFLOAD ? newExecutor(System.getProperty("demo.processing.executor", "fixed")) : null;
+
+    private static ExecutorService newExecutor(String type) {
+        switch (type) {
+            case "fixed":
+                ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(THREADS, ChannelGroups.threadFactory("processing-"));
+                Metrics.queue("processing", () -> pool.getQueue().size());
+                return pool;
+            case "forkjoin":
+                ForkJoinPool forkJoinPool = new ForkJoinPool(THREADS, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+                Metrics.queue("processing", forkJoinPool::getQueuedSubmissionCount);
+                return forkJoinPool;
+            case "virtual":
+                return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("processing-", 0).factory());
+            default:
+                throw new IllegalArgumentException("Unknown processing executor: " + type);
+        }
+    }
+
+    public static boolean isOffloaded() {
+        return OFFLOAD;
+    }
+
+    public static void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    // the message is between the position and the limit of the buffer and is left unchanged
+    public static void process(ByteBuffer message) {
+        if (message.hasRemaining() && message.get(message.position()) == '!') {
+            long deadline = System.nanoTime() + SLOW_NANOS;
+            while (System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+}
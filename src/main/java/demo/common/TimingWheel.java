@@ -0,0 +1,113 @@
+package demo.common;
+
+import java.util.function.Consumer;
+
+// Hashed timing wheel: a ring of buckets, one per tick, each holding a doubly linked list of the timeouts
+// whose deadline falls into that tick modulo the size of the ring. Scheduling and cancelling are O(1)
+// and allocate nothing, because every connection owns one Timeout node and reuses it;
+// expiring visits only the buckets of the ticks that have passed, and a timeout in a visited bucket
+// whose deadline is a whole turn of the wheel or more away stays where it is.
+// Not thread-safe: it is meant to be driven by the thread of one event loop.
+public class TimingWheel<T> {
+
+    private final Timeout<T>[] buckets; // sentinel heads of circular lists
+    private final int mask;
+    private final long tickNanos;
+
+    private long tick; // the last tick whose bucket has been expired
+    private int size;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickNanos, int bucketCount, long now) {
+        if (Integer.bitCount(bucketCount) != 1) {
+            throw new IllegalArgumentException("Bucket count must be a power of two: " + bucketCount);
+        }
+        this.tickNanos = tickNanos;
+        this.mask = bucketCount - 1;
+        this.tick = Math.floorDiv(now, tickNanos);
+
+        buckets = new Timeout[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            Timeout<T> head = new Timeout<>(null);
+            head.previous = head;
+            head.next = head;
+            buckets[i] = head;
+        }
+    }
+
+    // reschedules the timeout if it is already scheduled
+    public void schedule(Timeout<T> timeout, long deadline) {
+        if (timeout.isScheduled()) {
+            unlink(timeout);
+        }
+        timeout.deadline = deadline;
+
+        // a deadline in a tick that has already been expired goes into the next bucket to be visited
+        long deadlineTick = Math.max(Math.floorDiv(deadline, tickNanos), tick + 1);
+        Timeout<T> head = buckets[(int) (deadlineTick & mask)];
+        timeout.previous = head.previous;
+        timeout.next = head;
+        head.previous.next = timeout;
+        head.previous = timeout;
+        size++;
+    }
+
+    public void cancel(Timeout<T> timeout) {
+        if (timeout.isScheduled()) {
+            unlink(timeout);
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // passes the owner of every timeout whose deadline has passed to the handler,
+    // which may schedule that timeout again but must not cancel or schedule any other one
+    public void expire(long now, Consumer<T> handler) {
+        long nowTick = Math.floorDiv(now, tickNanos);
+        long ticks = Math.min(nowTick - tick, buckets.length); // after a whole turn every bucket has been visited
+        for (long i = 1; i <= ticks; i++) {
+            Timeout<T> head = buckets[(int) ((tick + i) & mask)];
+            Timeout<T> timeout = head.next;
+            while (timeout != head) {
+                Timeout<T> next = timeout.next;
+                if (timeout.deadline <= now) {
+                    unlink(timeout);
+                    handler.accept(timeout.owner);
+                }
+                timeout = next;
+            }
+        }
+        tick = Math.max(tick, nowTick);
+    }
+
+    // how long an event loop may block before the next tick has to be expired
+    public long nanosUntilNextTick(long now) {
+        return Math.max(1, (Math.floorDiv(now, tickNanos) + 1) * tickNanos - now);
+    }
+
+    private void unlink(Timeout<T> timeout) {
+        timeout.previous.next = timeout.next;
+        timeout.next.previous = timeout.previous;
+        timeout.previous = null;
+        timeout.next = null;
+        size--;
+    }
+
+    public static final class Timeout<T> {
+
+        private final T owner;
+        private long deadline;
+        private Timeout<T> previous;
+        private Timeout<T> next;
+
+        public Timeout(T owner) {
+            this.owner = owner;
+        }
+
+        public boolean isScheduled() {
+            return next != null;
+        }
+    }
+}
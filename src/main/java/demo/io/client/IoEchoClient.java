@@ -12,7 +12,7 @@ public class IoEchoClient extends Demo {
         BufferedReader stdIn = new BufferedReader(new InputStreamReader(System.in));
         String message;
         while ((message = stdIn.readLine()) != null) {
-            Socket socket = new Socket("localhost", 7000);
+            Socket socket = new Socket("localhost", port(args));
             logger.info("Echo client started: {}", socket);
 
             InputStream is = socket.getInputStream();
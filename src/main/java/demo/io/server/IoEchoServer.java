@@ -1,24 +1,25 @@
 package demo.io.server;
 
 import demo.common.Demo;
+import demo.common.Metrics;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
 
 public class IoEchoServer extends Demo {
 
     public static void main(String[] args) throws IOException {
-        ServerSocket serverSocket = new ServerSocket(7000);
+        ServerSocket serverSocket = new ServerSocket(port(args));
         logger.info("Echo server started: {}", serverSocket);
 
         boolean active = true;
         while (active) {
             Socket socket = serverSocket.accept(); // blocking
             logger.info("Connection accepted: {}", socket);
+            Metrics.connectionAccepted();
 
             InputStream is = socket.getInputStream();
             OutputStream os = socket.getOutputStream();
@@ -26,18 +27,20 @@ public class IoEchoServer extends Demo {
             int read;
             byte[] bytes = new byte[1024];
             while ((read = is.read(bytes)) != -1) { // blocking
-                logger.info("Echo server read: {} byte(s)", read);
-
-                String message = new String(bytes, 0, read, StandardCharsets.UTF_8);
-                logger.info("Echo server received: {}", message);
-                if (message.trim().equals("bye")) {
+                Metrics.bytesRead(read);
+                if (logSampled()) {
+                    logger.debug("Echo server read: {} byte(s) from {}", read, socket);
+                }
+                if (isBye(bytes, 0, read)) {
                     active = false;
                 }
 
                 os.write(bytes, 0, read); // blocking
+                Metrics.bytesWritten(read);
             }
 
             socket.close();
+            Metrics.connectionClosed();
             logger.info("Connection closed");
         }
 
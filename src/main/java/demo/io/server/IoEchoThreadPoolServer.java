@@ -1,41 +1,73 @@
 package demo.io.server;
 
 import demo.common.Demo;
+import demo.common.Lifecycle;
+import demo.common.Metrics;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicBoolean;
 
+// -Ddemo.io.virtualThreads=true runs every connection on its own virtual thread instead of a pooled platform thread
+// "bye" or SIGTERM stops the server: the input of every connection is shut down, so each worker writes
+// the response it is echoing, reads the end of stream and closes its connection
 public class IoEchoThreadPoolServer extends Demo {
 
-    private static final AtomicBoolean active = new AtomicBoolean(true);
+    private static final Lifecycle lifecycle = new Lifecycle();
+    private static final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
 
-    public static void main(String[] args) throws IOException {
-        ServerSocket serverSocket = new ServerSocket(7000);
+    public static void main(String[] args) throws IOException, InterruptedException {
+        ServerSocket serverSocket = new ServerSocket(port(args));
         logger.info("Echo server started: {}", serverSocket);
 
-        ExecutorService executorService = Executors.newCachedThreadPool();
+        ExecutorService executorService = Boolean.getBoolean("demo.io.virtualThreads")
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newCachedThreadPool();
 
-        while (active.get()) {
-            Socket socket = serverSocket.accept(); // blocking
-            executorService.submit(new Worker(socket));
+        lifecycle.closeOnStop(serverSocket); // accept() throws SocketException
+        lifecycle.onStop(IoEchoThreadPoolServer::shutdownInputs);
+        lifecycle.stopOnShutdown();
+
+        while (lifecycle.isActive()) {
+            try {
+                Socket socket = serverSocket.accept(); // blocking
+                sockets.add(socket);
+                executorService.submit(new Worker(socket));
+            } catch (SocketException e) {
+                if (lifecycle.isActive()) {
+                    throw e;
+                }
+            }
         }
 
         logger.info("Echo server is finishing");
-        executorService.shutdown();
-        while (!executorService.isTerminated()) {
+        if (!lifecycle.awaitTermination(executorService)) {
+            for (Socket socket : sockets) { // a platform thread blocked in read() is not interrupted
+                socket.close();
+            }
         }
 
-        serverSocket.close();
+        lifecycle.terminated();
         logger.info("Echo server finished");
     }
 
+    private static void shutdownInputs() {
+        for (Socket socket : sockets) {
+            try {
+                socket.shutdownInput();
+            } catch (IOException e) {
+                // already closed by the client
+            }
+        }
+    }
+
     private static class Worker implements Runnable {
 
         private final Socket socket;
@@ -48,6 +80,7 @@ public class IoEchoThreadPoolServer extends Demo {
         public void run() {
             try {
                 logger.info("Connection accepted: {}", socket);
+                Metrics.connectionAccepted();
 
                 InputStream is = socket.getInputStream();
                 OutputStream os = socket.getOutputStream();
@@ -55,21 +88,24 @@ public class IoEchoThreadPoolServer extends Demo {
                 int read;
                 byte[] bytes = new byte[1024];
                 while ((read = is.read(bytes)) != -1) { // blocking
-                    logger.info("Echo server read: {} byte(s)", read);
-
-                    String message = new String(bytes, 0, read, StandardCharsets.UTF_8);
-                    logger.info("Echo server received: {}", message);
-                    if (message.trim().equals("bye")) {
-                        active.set(false);
+                    Metrics.bytesRead(read);
+                    if (logSampled()) {
+                        logger.debug("Echo server read: {} byte(s) from {}", read, socket);
+                    }
+                    if (isBye(bytes, 0, read)) {
+                        lifecycle.stop();
                     }
 
                     os.write(bytes, 0, read); // blocking
+                    Metrics.bytesWritten(read);
                 }
             } catch (IOException e) {
                 logger.error("Exception during socket reading/writing", e);
             } finally {
+                sockets.remove(socket);
                 try {
                     socket.close();
+                    Metrics.connectionClosed();
                     logger.info("Connection closed");
                 } catch (IOException e) {
                     logger.error("Exception during socket closing", e);
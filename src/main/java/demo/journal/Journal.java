@@ -0,0 +1,102 @@
+package demo.journal;
+
+import demo.common.Demo;
+import demo.common.Metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// -Ddemo.journal=true makes the framed echo servers append every frame they receive to an append-only journal
+// in -Ddemo.journal.dir, with its connection id and the nanoTime it was read at; JournalReplay sends it to any server.
+// The I/O threads only copy the payload into a ring of -Ddemo.journal.ringSize bytes (8 MB by default), so
+// they do not wait for the disk, not even for a page fault of a mapped file; the journal thread moves the records
+// from the ring into the mapped segments of -Ddemo.journal.segmentSize bytes (64 MB by default).
+// A record that finds the ring full is dropped, and the drops are logged when the journal is closed.
+public class Journal extends Demo {
+
+    public static final boolean ENABLED = Boolean.getBoolean("demo.journal");
+
+    static final Path DIRECTORY = Paths.get(System.getProperty("demo.journal.dir", Paths.get(System.getProperty("java.io.tmpdir"), "demo-journal").toString()));
+
+    private static final int RING_SIZE = Integer.getInteger("demo.journal.ringSize", 8 * 1024 * 1024);
+    private static final int SEGMENT_SIZE = Integer.getInteger("demo.journal.segmentSize", 64 * 1024 * 1024);
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final AtomicInteger connectionIds = new AtomicInteger();
+    private static final JournalRing ring = ENABLED ? new JournalRing(RING_SIZE) : null;
+
+    private static volatile boolean closing;
+    private static long appended;
+
+    static {
+        if (ENABLED) {
+            JournalSegments segments;
+            try {
+                segments = new JournalSegments(DIRECTORY, SEGMENT_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (ring.capacity() > segments.maxRecordLength()) {
+                throw new IllegalArgumentException("The journal ring is larger than a segment: " + RING_SIZE);
+            }
+
+            Thread writer = new Thread(() -> write(segments), "journal");
+            writer.setDaemon(true);
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> close(writer), "journal-close"));
+
+            Metrics.queue("journal", ring::size);
+            logger.info("Journal started: {}", DIRECTORY);
+        }
+    }
+
+    private Journal() {
+    }
+
+    // 0 when the journal is disabled
+    public static int newConnection() {
+        return ENABLED ? connectionIds.incrementAndGet() : 0;
+    }
+
+    // copies the bytes between the position and the limit of the payload, which are left unchanged;
+    // the timestamp is a System.nanoTime() the caller has taken anyway, one for all the frames of a read
+    public static void append(int connectionId, long timestamp, ByteBuffer payload) {
+        if (ENABLED) {
+            ring.offer(connectionId, timestamp, payload);
+        }
+    }
+
+    // the journal thread polls the ring, so the I/O threads never pay for waking it up,
+    // and the longer it sleeps, the more records it moves with one copy
+    private static void write(JournalSegments segments) {
+        JournalRing.Consumer consumer = segments::append;
+        while (true) {
+            boolean last = closing; // what has been appended before closing is in the ring already
+            int records = ring.drain(consumer);
+            appended += records;
+            if (records == 0) {
+                if (last) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+        segments.force();
+    }
+
+    private static void close(Thread writer) {
+        closing = true;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Journal closed: {} record(s) appended, {} dropped", appended, ring.dropped());
+    }
+}
@@ -0,0 +1,78 @@
+package demo.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Reads the records of a journal in the order they were appended, segment after segment:
+// while (reader.next()) { reader.connectionId() ... reader.timestamp() ... reader.payload() ... }
+// The payload is a read-only slice of the mapped segment, valid until the next call of next().
+public class JournalReader {
+
+    private final List<Path> segments;
+    private int nextSegment;
+
+    private MappedByteBuffer segment;
+    private long epochNanos; // the wall-clock time of the segment, less its nanoTime
+    private int position;
+
+    private int connectionId;
+    private long timestamp;
+    private ByteBuffer payload;
+
+    public JournalReader(Path directory) throws IOException {
+        this.segments = JournalSegments.list(directory);
+    }
+
+    public boolean next() throws IOException {
+        while (true) {
+            if (segment != null && position + JournalRing.HEADER_LENGTH <= segment.limit()) {
+                int length = segment.getInt(position);
+                if (length > 0) {
+                    connectionId = segment.getInt(position + Integer.BYTES);
+                    timestamp = segment.getLong(position + 2 * Integer.BYTES);
+                    payload = segment.slice(position + JournalRing.HEADER_LENGTH, length - JournalRing.HEADER_LENGTH);
+                    position += JournalRing.align(length);
+                    return true;
+                }
+            }
+            if (nextSegment == segments.size()) {
+                return false;
+            }
+            open(segments.get(nextSegment++));
+        }
+    }
+
+    public int connectionId() {
+        return connectionId;
+    }
+
+    // the wall-clock time the record was appended at, in nanoseconds since the epoch
+    public long timestamp() {
+        return epochNanos + timestamp;
+    }
+
+    public ByteBuffer payload() {
+        return payload;
+    }
+
+    private void open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        segment.order(JournalRing.ORDER);
+        if (segment.limit() < JournalSegments.HEADER_LENGTH || segment.getInt(0) != JournalSegments.MAGIC) {
+            throw new IOException("Not a journal segment: " + path);
+        }
+        if (segment.getInt(Integer.BYTES) != JournalSegments.VERSION) {
+            throw new IOException("Unsupported journal segment version " + segment.getInt(Integer.BYTES) + ": " + path);
+        }
+        epochNanos = TimeUnit.MILLISECONDS.toNanos(segment.getLong(8)) - segment.getLong(16);
+        position = JournalSegments.HEADER_LENGTH;
+    }
+}
@@ -0,0 +1,217 @@
+package demo.journal;
+
+import demo.codec.Frames;
+import demo.common.Demo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Replays a journal against a server: every journaled connection gets a connection of its own, opened before
+// its first record is sent, and the records are sent in the order they were appended, with their original spacing
+// divided by --speed (0 sends them as fast as the server reads them). The echoes are read and counted, not compared.
+//
+// usage: JournalReplay [--journal <demo.journal.dir>] [--host localhost] [--port 7000] [--speed 1] [--framing true]
+// --framing false sends the bare payloads, for servers that echo whatever one read returns
+public class JournalReplay extends Demo {
+
+    private static final int MAX_PENDING_BYTES = 1024 * 1024;
+    private static final long ECHO_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final InetSocketAddress address;
+    private final double speed;
+    private final boolean framing;
+
+    private final Map<Integer, Connection> connections = new HashMap<>();
+    private final ByteBuffer input = ByteBuffer.allocateDirect(64 * 1024);
+    private Selector selector;
+    private Consumer<SelectionKey> action;
+
+    private long bytesSent;
+    private long bytesReceived;
+
+    JournalReplay(InetSocketAddress address, double speed, boolean framing) {
+        this.address = address;
+        this.speed = speed;
+        this.framing = framing;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = options(args);
+
+        JournalReader reader = new JournalReader(Paths.get(options.getOrDefault("journal", Journal.DIRECTORY.toString())));
+        InetSocketAddress address = new InetSocketAddress(options.getOrDefault("host", "localhost"), Integer.parseInt(options.getOrDefault("port", "7000")));
+        double speed = Double.parseDouble(options.getOrDefault("speed", "1"));
+        boolean framing = Boolean.parseBoolean(options.getOrDefault("framing", "true"));
+
+        new JournalReplay(address, speed, framing).run(reader);
+    }
+
+    void run(JournalReader reader) throws IOException {
+        selector = Selector.open();
+        action = key -> {
+            try {
+                ((Connection) key.attachment()).handle();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+
+        long start = System.nanoTime();
+        long firstTimestamp = 0;
+        long lastTimestamp = 0;
+        long records = 0;
+        while (reader.next()) {
+            if (records == 0) {
+                firstTimestamp = reader.timestamp();
+            }
+            lastTimestamp = reader.timestamp();
+            if (speed > 0) {
+                await(start + (long) ((lastTimestamp - firstTimestamp) / speed));
+            }
+
+            Connection connection = connections.get(reader.connectionId());
+            if (connection == null) {
+                connection = connect();
+                connections.put(reader.connectionId(), connection);
+            }
+            connection.send(reader.payload());
+            records++;
+
+            while (connection.pendingBytes() > MAX_PENDING_BYTES) { // the server reads slower than the journal is replayed
+                poll(1);
+            }
+            if (records % 64 == 0) {
+                poll(0);
+            }
+        }
+
+        long deadline = System.nanoTime() + ECHO_TIMEOUT_NANOS;
+        while (bytesReceived < bytesSent && System.nanoTime() < deadline) {
+            poll(10);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        logger.info(String.format("Replayed %d record(s) of %d connection(s), recorded in %.3f s, in %.3f s: %.0f records/s, %d byte(s) sent, %d byte(s) echoed",
+                records,
+                connections.size(),
+                (lastTimestamp - firstTimestamp) / 1e9,
+                elapsed / 1e9,
+                records * 1e9 / elapsed,
+                bytesSent,
+                bytesReceived));
+
+        for (Connection connection : connections.values()) {
+            connection.channel.close();
+        }
+        selector.close();
+    }
+
+    private void await(long due) throws IOException {
+        long remaining;
+        while ((remaining = due - System.nanoTime()) > 0) {
+            poll(TimeUnit.NANOSECONDS.toMillis(remaining));
+        }
+    }
+
+    // reads the echoes and writes the pending requests, waiting for at most the timeout (0 does not wait)
+    private void poll(long timeoutMillis) throws IOException {
+        try {
+            if (timeoutMillis > 0) {
+                selector.select(action, timeoutMillis); // blocking
+            } else {
+                selector.selectNow(action); // non-blocking
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Connection connect() throws IOException {
+        SocketChannel socketChannel = SocketChannel.open(address); // blocking
+        socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        socketChannel.configureBlocking(false);
+
+        Connection connection = new Connection(socketChannel);
+        connection.key = socketChannel.register(selector, SelectionKey.OP_READ, connection);
+        return connection;
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private class Connection {
+
+        private final SocketChannel channel;
+        private ByteBuffer output = ByteBuffer.allocateDirect(64 * 1024); // in write mode: not yet written
+        private SelectionKey key;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        int pendingBytes() {
+            return output.position();
+        }
+
+        void send(ByteBuffer payload) throws IOException {
+            int length = (framing ? Frames.HEADER_LENGTH : 0) + payload.remaining();
+            if (output.remaining() < length) {
+                ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(output.capacity() * 2, output.position() + length));
+                output = grown.put(output.flip());
+            }
+            if (framing) {
+                output.putInt(payload.remaining());
+            }
+            output.put(output.position(), payload, payload.position(), payload.remaining());
+            output.position(output.position() + payload.remaining());
+            bytesSent += length;
+            write();
+        }
+
+        void handle() throws IOException {
+            if (key.isReadable()) {
+                int read;
+                while ((read = channel.read(input)) > 0) { // can be non-blocking
+                    bytesReceived += read;
+                    input.clear();
+                }
+                if (read < 0) {
+                    throw new IOException("Connection closed by server: " + channel);
+                }
+            }
+            if (key.isValid() && key.isWritable()) {
+                write();
+            }
+        }
+
+        private void write() throws IOException {
+            output.flip();
+            channel.write(output); // can be non-blocking
+            output.compact();
+
+            int interestOps = output.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+            if (key.interestOps() != interestOps) {
+                key.interestOps(interestOps);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package demo.journal;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// A bounded many-to-one ring of journal records in one direct buffer, laid out like the records of a segment.
+// A producer claims the space of its record with a CAS on the tail, copies the record in and publishes it
+// by writing its length last, with release semantics; the single consumer reads the length with acquire semantics,
+// hands the records over a span at a time, zeroes their space and moves the head on. A record that does not fit
+// before the end of the buffer leaves a padding record (a negative length) there and starts over at the beginning.
+// A producer never waits for the consumer: when the ring is full, its record is dropped and counted.
+final class JournalRing {
+
+    static final int HEADER_LENGTH = 16; // the record length, the connection id and the timestamp
+    static final int ALIGNMENT = 8;
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ORDER);
+    private static final byte[] ZEROS = new byte[64 * 1024];
+
+    private final ByteBuffer buffer;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong(); // claimed by the producers
+    private final AtomicLong head = new AtomicLong(); // released by the consumer
+    private final LongAdder dropped = new LongAdder();
+
+    JournalRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The ring capacity is not a power of 2: " + capacity);
+        }
+        this.buffer = ByteBuffer.allocateDirect(capacity).order(ORDER);
+        this.mask = capacity - 1;
+    }
+
+    static int align(int length) {
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    // copies the bytes between the position and the limit of the payload, which are left unchanged
+    boolean offer(int connectionId, long timestamp, ByteBuffer payload) {
+        int length = HEADER_LENGTH + payload.remaining();
+        int alignedLength = align(length);
+        if (alignedLength > capacity()) {
+            dropped.increment();
+            return false;
+        }
+
+        long claimed;
+        int index;
+        int padding;
+        do {
+            claimed = tail.get();
+            index = (int) claimed & mask;
+            padding = alignedLength > capacity() - index ? capacity() - index : 0;
+            if (claimed + padding + alignedLength - head.get() > capacity()) {
+                dropped.increment();
+                return false;
+            }
+        } while (!tail.compareAndSet(claimed, claimed + padding + alignedLength));
+
+        if (padding > 0) {
+            INT.setRelease(buffer, index, -padding);
+            index = 0;
+        }
+        buffer.putInt(index + Integer.BYTES, connectionId);
+        buffer.putLong(index + 2 * Integer.BYTES, timestamp);
+        buffer.put(index + HEADER_LENGTH, payload, payload.position(), payload.remaining());
+        INT.setRelease(buffer, index, length);
+        return true;
+    }
+
+    // hands the published records over in the order of their claims, as spans of consecutive records,
+    // and returns the number of records handed over
+    int drain(Consumer consumer) {
+        long position = head.get();
+        int records = 0;
+        while (true) {
+            int start = (int) position & mask;
+            int end = start;
+            int padding = 0;
+            while (end < capacity()) {
+                int length = (int) INT.getAcquire(buffer, end);
+                if (length == 0) { // not published yet
+                    break;
+                }
+                if (length < 0) { // the rest of the buffer
+                    padding = -length;
+                    break;
+                }
+                end += align(length);
+                records++;
+            }
+
+            if (end > start) {
+                consumer.accept(buffer, start, end - start);
+            }
+            int consumed = end - start + padding;
+            if (consumed == 0) {
+                break;
+            }
+
+            // every aligned word may be the length of a later record, so all of them must read as 0 again
+            for (int i = start; i < start + consumed; i += ZEROS.length) {
+                buffer.put(i, ZEROS, 0, Math.min(ZEROS.length, start + consumed - i));
+            }
+            position += consumed;
+            head.lazySet(position);
+            if (padding == 0) {
+                break;
+            }
+        }
+        return records;
+    }
+
+    long size() {
+        return tail.get() - head.get();
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+
+    interface Consumer {
+
+        // the span holds whole records with their padding and is valid only during the call
+        void accept(ByteBuffer buffer, int index, int length);
+    }
+}
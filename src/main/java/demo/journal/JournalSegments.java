@@ -0,0 +1,107 @@
+package demo.journal;
+
+import demo.common.Demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+// The files of a journal: journal-<index>.dat segments of a fixed size, mapped into memory whole.
+// A segment starts with a header (a magic number, the format version, and the wall-clock and nanoTime clocks
+// at its creation, to turn the nanoTime timestamps of its records into wall-clock times), followed by the records:
+// the record length (the header included), the connection id, the nanoTime timestamp and the payload,
+// padded to 8 bytes. A new file reads as zeros, so a record length of 0 marks the end of the records;
+// the unwritten rest of the last segment is a hole of the sparse file and takes no disk space.
+final class JournalSegments extends Demo {
+
+    static final int MAGIC = 0x4c4e4a44; // "DJNL"
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 32;
+
+    private final Path directory;
+    private final int segmentSize;
+
+    private long nextIndex;
+    private MappedByteBuffer segment;
+
+    JournalSegments(Path directory, int segmentSize) throws IOException {
+        if (segmentSize % JournalRing.ALIGNMENT != 0) {
+            throw new IllegalArgumentException("The segment size is not a multiple of " + JournalRing.ALIGNMENT + ": " + segmentSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+
+        List<Path> segments = list(directory); // a restarted server appends to a new segment
+        this.nextIndex = segments.isEmpty() ? 0 : index(segments.get(segments.size() - 1)) + 1;
+    }
+
+    static List<Path> list(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().matches("journal-\\d{20}\\.dat"))
+                    .sorted()
+                    .forEach(segments::add);
+        }
+        return segments;
+    }
+
+    private static long index(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring("journal-".length(), name.length() - ".dat".length()));
+    }
+
+    // the longest record a segment can hold
+    int maxRecordLength() {
+        return segmentSize - HEADER_LENGTH;
+    }
+
+    // copies a span of records of the ring, which have the same layout, into the current segment with one copy,
+    // or record by record if the span does not fit and a new segment has to be started
+    void append(ByteBuffer buffer, int index, int length) {
+        if (segment == null || segment.remaining() < length) {
+            int end = index + length;
+            while (index < end) {
+                int recordLength = JournalRing.align(buffer.getInt(index));
+                if (segment == null || segment.remaining() < recordLength) {
+                    roll();
+                }
+                segment.put(segment.position(), buffer, index, recordLength);
+                segment.position(segment.position() + recordLength);
+                index += recordLength;
+            }
+            return;
+        }
+        segment.put(segment.position(), buffer, index, length);
+        segment.position(segment.position() + length);
+    }
+
+    // writes the dirty pages of the current segment to the disk; the finished segments are written by the OS
+    void force() {
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    private void roll() {
+        Path path = directory.resolve(String.format("journal-%020d.dat", nextIndex++));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize); // the mapping outlives the channel
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create the journal segment " + path, e);
+        }
+        segment.order(JournalRing.ORDER)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(System.currentTimeMillis())
+                .putLong(System.nanoTime())
+                .position(HEADER_LENGTH);
+        logger.info("Journal segment created: {}", path);
+    }
+}
@@ -0,0 +1,262 @@
+package demo.loadgen;
+
+import demo.codec.Frames;
+import demo.common.Demo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Open-loop load generator: requests are sent on a fixed schedule regardless of how fast the server responds,
+// and every latency is measured from the time the request was scheduled, not from the time it was actually
+// written, so a stalled server is charged for all the requests queued behind the stall (no coordinated omission).
+//
+// usage: LoadGenerator [--host localhost] [--port 7000] [--connections 1000] [--rate 10000]
+//                      [--size 64] [--duration 30] [--interval 1] [--framing false]
+// --framing true prefixes every request with its 4-byte length, for servers started with -Ddemo.codec.framing=true
+public class LoadGenerator extends Demo {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final InetSocketAddress address;
+    private final int connectionCount;
+    private final int rate;
+    private final int messageSize;
+    private final boolean framing;
+    private final long durationNanos;
+    private final long intervalNanos;
+
+    private final LatencyHistogram intervalHistogram = new LatencyHistogram();
+    private final LatencyHistogram totalHistogram = new LatencyHistogram();
+
+    LoadGenerator(InetSocketAddress address, int connectionCount, int rate, int messageSize, boolean framing, int durationSeconds, int intervalSeconds) {
+        this.address = address;
+        this.connectionCount = connectionCount;
+        this.rate = rate;
+        this.messageSize = messageSize;
+        this.framing = framing;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(intervalSeconds);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = options(args);
+
+        InetSocketAddress address = new InetSocketAddress(options.getOrDefault("host", "localhost"), Integer.parseInt(options.getOrDefault("port", "7000")));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "1000"));
+        int rate = Integer.parseInt(options.getOrDefault("rate", "10000"));
+        int size = Integer.parseInt(options.getOrDefault("size", "64"));
+        boolean framing = Boolean.parseBoolean(options.getOrDefault("framing", "false"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int interval = Integer.parseInt(options.getOrDefault("interval", "1"));
+
+        new LoadGenerator(address, connections, rate, size, framing, duration, interval).run();
+    }
+
+    void run() throws IOException {
+        Selector selector = Selector.open();
+
+        Connection[] connections = new Connection[connectionCount];
+        for (int i = 0; i < connectionCount; i++) {
+            SocketChannel socketChannel = SocketChannel.open(address); // blocking
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            socketChannel.configureBlocking(false);
+
+            connections[i] = new Connection(socketChannel, messageSize, framing);
+            connections[i].key = socketChannel.register(selector, SelectionKey.OP_READ, connections[i]);
+        }
+        logger.info("Load generator connected {} connection(s) to {}, target rate {} req/s", connectionCount, address, rate);
+
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+        long nextReport = start + intervalNanos;
+        long intervalStart = start;
+        long scheduled = 0;
+
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= end) {
+                break;
+            }
+
+            long intendedStart;
+            while ((intendedStart = intendedStart(start, scheduled)) <= now) {
+                Connection connection = connections[(int) (scheduled % connectionCount)];
+                connection.schedule(intendedStart);
+                connection.flush();
+                scheduled++;
+            }
+
+            long timeoutNanos = Math.min(intendedStart, nextReport) - System.nanoTime();
+            if (timeoutNanos >= TimeUnit.MILLISECONDS.toNanos(1)) {
+                selector.select(TimeUnit.NANOSECONDS.toMillis(timeoutNanos)); // blocking
+            } else {
+                selector.selectNow(); // non-blocking
+            }
+
+            Iterator<SelectionKey> keysIterator = selector.selectedKeys().iterator();
+            while (keysIterator.hasNext()) {
+                SelectionKey key = keysIterator.next();
+                keysIterator.remove();
+
+                Connection connection = (Connection) key.attachment();
+                if (key.isReadable()) {
+                    connection.read(intervalHistogram);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            }
+
+            now = System.nanoTime();
+            if (now >= nextReport) {
+                report(now - start, now - intervalStart, intervalHistogram, backlog(connections));
+                totalHistogram.add(intervalHistogram);
+                intervalHistogram.reset();
+                intervalStart = now;
+                nextReport += intervalNanos;
+            }
+        }
+
+        long now = System.nanoTime();
+        totalHistogram.add(intervalHistogram);
+        logger.info("Total:");
+        report(now - start, now - start, totalHistogram, backlog(connections));
+
+        for (Connection connection : connections) {
+            connection.channel.close();
+        }
+        selector.close();
+    }
+
+    private long intendedStart(long start, long sequence) {
+        return start + (long) ((double) sequence * NANOS_PER_SECOND / rate);
+    }
+
+    private static long backlog(Connection[] connections) {
+        long backlog = 0;
+        for (Connection connection : connections) {
+            backlog += connection.inFlight();
+        }
+        return backlog;
+    }
+
+    private static void report(long elapsedNanos, long periodNanos, LatencyHistogram histogram, long backlog) {
+        double throughput = (double) histogram.getTotalCount() * NANOS_PER_SECOND / periodNanos;
+        logger.info(String.format("%6.1fs %9d req %10.0f req/s  latency us: mean %8.1f p50 %8.1f p90 %8.1f p99 %8.1f p99.9 %8.1f max %8.1f  in flight %d",
+                elapsedNanos / 1e9,
+                histogram.getTotalCount(),
+                throughput,
+                histogram.getMean() / 1e3,
+                histogram.getValueAtPercentile(50) / 1e3,
+                histogram.getValueAtPercentile(90) / 1e3,
+                histogram.getValueAtPercentile(99) / 1e3,
+                histogram.getValueAtPercentile(99.9) / 1e3,
+                histogram.getMaxValue() / 1e3,
+                backlog));
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static class Connection {
+
+        private final SocketChannel channel;
+        private final ByteBuffer output;
+        private final ByteBuffer input;
+        private final int messageSize;
+
+        private SelectionKey key;
+
+        // intended start times of the requests that have been scheduled but not yet answered
+        private long[] intendedStarts = new long[16];
+        private int head;
+        private int size;
+
+        private int unsent;
+        private int partiallyReceived;
+
+        Connection(SocketChannel channel, int payloadSize, boolean framing) {
+            this.channel = channel;
+            this.messageSize = framing ? Frames.HEADER_LENGTH + payloadSize : payloadSize;
+            this.output = ByteBuffer.allocateDirect(messageSize);
+            this.input = ByteBuffer.allocateDirect(64 * 1024);
+
+            if (framing) {
+                output.putInt(payloadSize);
+            }
+            while (output.hasRemaining()) {
+                output.put((byte) ('a' + output.position() % 26));
+            }
+            output.flip();
+        }
+
+        void schedule(long intendedStart) {
+            if (size == intendedStarts.length) {
+                long[] grown = new long[size * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = intendedStarts[(head + i) % size];
+                }
+                intendedStarts = grown;
+                head = 0;
+            }
+            intendedStarts[(head + size) % intendedStarts.length] = intendedStart;
+            size++;
+            unsent++;
+        }
+
+        int inFlight() {
+            return size;
+        }
+
+        void flush() throws IOException {
+            while (unsent > 0) {
+                channel.write(output); // can be non-blocking
+                if (output.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                output.rewind();
+                unsent--;
+            }
+            if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        void read(LatencyHistogram histogram) throws IOException {
+            int read;
+            while ((read = channel.read(input)) > 0) { // can be non-blocking
+                input.clear();
+
+                long now = System.nanoTime();
+                partiallyReceived += read;
+                while (partiallyReceived >= messageSize && size > 0) {
+                    partiallyReceived -= messageSize;
+                    histogram.record(now - intendedStarts[head]);
+                    head = (head + 1) % intendedStarts.length;
+                    size--;
+                }
+            }
+            if (read < 0) {
+                throw new IOException("Connection closed by server: " + channel);
+            }
+        }
+    }
+}
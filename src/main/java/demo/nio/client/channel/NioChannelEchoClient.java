@@ -16,7 +16,7 @@ public class NioChannelEchoClient extends Demo {
         BufferedReader stdIn = new BufferedReader(new InputStreamReader(System.in));
         String message;
         while ((message = stdIn.readLine()) != null) {
-            SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress("localhost", 7000));
+            SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress("localhost", port(args)));
             logger.info("Echo client started: {}", socketChannel);
 
             ByteBuffer buffer = ByteBuffer.wrap(message.getBytes());
@@ -0,0 +1,136 @@
+package demo.nio.client.channel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// A traffic trace: when every message was sent, on which connection and how long it was, without the payloads.
+// The file is a magic number and the format version, followed by one record per message: the microseconds
+// since the previous message, the connection id and the payload length, each as a variable-length integer,
+// so a message usually takes 3 to 6 bytes. A trace is loaded whole, with the connection ids numbered from 0.
+final class Trace {
+
+    private static final int MAGIC = 0x43525444; // "DTRC"
+    private static final int VERSION = 1;
+
+    final long[] sentAt; // nanoseconds since the first message
+    final int[] connections;
+    final int[] sizes;
+    final int connectionCount;
+
+    private Trace(long[] sentAt, int[] connections, int[] sizes, int connectionCount) {
+        this.sentAt = sentAt;
+        this.connections = connections;
+        this.sizes = sizes;
+        this.connectionCount = connectionCount;
+    }
+
+    int size() {
+        return sizes.length;
+    }
+
+    long durationNanos() {
+        return sentAt.length == 0 ? 0 : sentAt[sentAt.length - 1];
+    }
+
+    static Trace read(Path path) throws IOException {
+        long[] sentAt = new long[1024];
+        int[] connections = new int[1024];
+        int[] sizes = new int[1024];
+        Map<Integer, Integer> connectionIndexes = new HashMap<>();
+
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a trace of version " + VERSION + ": " + path);
+            }
+
+            long micros = 0;
+            while (true) {
+                long delta;
+                try {
+                    delta = readVarLong(in);
+                } catch (EOFException e) {
+                    break;
+                }
+                micros += delta;
+
+                if (count == sizes.length) {
+                    sentAt = Arrays.copyOf(sentAt, count * 2);
+                    connections = Arrays.copyOf(connections, count * 2);
+                    sizes = Arrays.copyOf(sizes, count * 2);
+                }
+                sentAt[count] = TimeUnit.MICROSECONDS.toNanos(micros);
+                connections[count] = connectionIndexes.computeIfAbsent((int) readVarLong(in), id -> connectionIndexes.size());
+                sizes[count] = (int) readVarLong(in);
+                count++;
+            }
+        }
+        return new Trace(Arrays.copyOf(sentAt, count), Arrays.copyOf(connections, count), Arrays.copyOf(sizes, count), connectionIndexes.size());
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+    }
+
+    // appends messages in the order they were sent; the timestamps are System.nanoTime() values
+    static class Writer implements Closeable {
+
+        private final DataOutputStream out;
+        private long start = -1;
+        private long lastMicros;
+        private long count;
+
+        Writer(Path path) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        void write(long timestamp, int connectionId, int size) throws IOException {
+            if (start < 0) {
+                start = timestamp;
+            }
+            long micros = Math.max(lastMicros, TimeUnit.NANOSECONDS.toMicros(timestamp - start));
+            writeVarLong(micros - lastMicros);
+            writeVarLong(connectionId);
+            writeVarLong(size);
+            lastMicros = micros;
+            count++;
+        }
+
+        long count() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                out.writeByte((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package demo.nio.client.channel;
+
+import demo.codec.Frames;
+import demo.common.BufferPool;
+import demo.common.Demo;
+import demo.common.Lifecycle;
+import demo.journal.JournalReader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Records a trace of the traffic of real clients for TraceReplayClient: a proxy between the clients and a server,
+// which passes the bytes through both ways and traces every message a client sends, until SIGTERM (Ctrl-C)
+// or until --duration seconds have passed. With --framing true a message is a frame, otherwise whatever one read returns.
+// --journal makes the trace of a journal that a server has written with -Ddemo.journal=true instead.
+// A client that disconnects, or a server that refuses its connection, ends that proxied connection only;
+// a failure to write the trace ends the recording.
+//
+// usage: TraceRecorder --trace <file> [--listen 7001] [--host localhost] [--port 7000] [--framing false] [--duration 0]
+//        TraceRecorder --trace <file> --journal <directory>
+public class TraceRecorder extends Demo {
+
+    private static final Lifecycle lifecycle = new Lifecycle();
+
+    private final InetSocketAddress address;
+    private final boolean framing;
+    private final Trace.Writer trace;
+
+    private int connectionIds;
+
+    TraceRecorder(InetSocketAddress address, boolean framing, Trace.Writer trace) {
+        this.address = address;
+        this.framing = framing;
+        this.trace = trace;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = options(args);
+        Path path = Paths.get(options.get("trace"));
+
+        try (Trace.Writer trace = new Trace.Writer(path)) {
+            if (options.containsKey("journal")) {
+                JournalReader reader = new JournalReader(Paths.get(options.get("journal")));
+                while (reader.next()) {
+                    trace.write(reader.timestamp(), reader.connectionId(), reader.payload().remaining());
+                }
+            } else {
+                InetSocketAddress address = new InetSocketAddress(options.getOrDefault("host", "localhost"), Integer.parseInt(options.getOrDefault("port", "7000")));
+                boolean framing = Boolean.parseBoolean(options.getOrDefault("framing", "false"));
+                int listen = Integer.parseInt(options.getOrDefault("listen", "7001"));
+                int duration = Integer.parseInt(options.getOrDefault("duration", "0"));
+
+                new TraceRecorder(address, framing, trace).run(listen, duration);
+            }
+            logger.info("Recorded {} message(s) into {}", trace.count(), path);
+        } finally {
+            lifecycle.terminated();
+        }
+    }
+
+    void run(int listen, int durationSeconds) throws IOException {
+        ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.configureBlocking(false);
+        serverSocketChannel.bind(new InetSocketAddress("localhost", listen));
+        logger.info("Trace recorder started: {} -> {}", serverSocketChannel, address);
+
+        Selector selector = Selector.open();
+        serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        lifecycle.wakeUpOnStop(selector);
+        lifecycle.stopOnShutdown();
+
+        // the trace itself fails with an UncheckedIOException, which ends the recording
+        Consumer<SelectionKey> action = key -> {
+            if (!key.isValid()) { // the other side of a connection closed in this select
+                return;
+            }
+            if (key.isAcceptable()) {
+                try {
+                    accept(selector, serverSocketChannel);
+                } catch (IOException e) { // the server channel stays open, the next accept may succeed
+                    logger.error("Exception during accepting", e);
+                }
+                return;
+            }
+            Proxied proxied = (Proxied) key.attachment();
+            try {
+                proxied.handle(key);
+            } catch (IOException e) { // a reset or a broken pipe: only this connection is closed
+                logger.debug("Closing connection {}: {}", proxied.id, e.toString());
+                try {
+                    proxied.close();
+                } catch (IOException ce) {
+                    logger.error("Exception during socket closing", ce);
+                }
+            }
+        };
+
+        long end = durationSeconds > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds) : Long.MAX_VALUE;
+        while (lifecycle.isActive()) {
+            long remaining = end - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                selector.select(action, Math.max(1, TimeUnit.NANOSECONDS.toMillis(Math.min(remaining, TimeUnit.SECONDS.toNanos(1))))); // blocking
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Proxied proxied) {
+                proxied.close();
+            }
+        }
+        serverSocketChannel.close();
+        selector.close();
+    }
+
+    private void accept(Selector selector, ServerSocketChannel serverSocketChannel) throws IOException {
+        SocketChannel client = serverSocketChannel.accept(); // can be non-blocking
+        if (client == null) {
+            return;
+        }
+        SocketChannel server;
+        try {
+            server = SocketChannel.open(address); // blocking
+        } catch (IOException e) {
+            client.close();
+            throw e;
+        }
+        for (SocketChannel channel : new SocketChannel[]{client, server}) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+        }
+
+        Proxied proxied = new Proxied(++connectionIds, client, server);
+        proxied.clientKey = client.register(selector, SelectionKey.OP_READ, proxied);
+        proxied.serverKey = server.register(selector, SelectionKey.OP_READ, proxied);
+        logger.info("Connection {} is proxied: {}", proxied.id, client);
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        if (!options.containsKey("trace")) {
+            throw new IllegalArgumentException("No --trace file");
+        }
+        return options;
+    }
+
+    // a client connection and its connection to the server; a side is not read while the other one
+    // has not taken what was read from it, so a slow reader slows its writer down instead of filling the memory
+    private class Proxied {
+
+        private final int id;
+        private final SocketChannel client;
+        private final SocketChannel server;
+        private final ByteBuffer toServer = BufferPool.acquire(64 * 1024); // in write mode
+        private final ByteBuffer toClient = BufferPool.acquire(64 * 1024); // in write mode
+        private SelectionKey clientKey;
+        private SelectionKey serverKey;
+
+        // framing: the bytes of the frame header read so far, and the payload bytes still to come
+        private int headerLength;
+        private int frameLength;
+        private int payloadRemaining;
+
+        Proxied(int id, SocketChannel client, SocketChannel server) {
+            this.id = id;
+            this.client = client;
+            this.server = server;
+        }
+
+        void handle(SelectionKey key) throws IOException {
+            boolean fromClient = key == clientKey;
+            if (key.isReadable()) {
+                ByteBuffer buffer = fromClient ? toServer : toClient;
+                int start = buffer.position();
+                int read = ((SocketChannel) key.channel()).read(buffer); // can be non-blocking
+                if (read < 0) {
+                    close();
+                    return;
+                }
+                if (fromClient) {
+                    trace(buffer, start, read);
+                }
+            }
+
+            write(toServer, server);
+            write(toClient, client);
+            clientKey.interestOps((toServer.position() == 0 ? SelectionKey.OP_READ : 0) | (toClient.position() > 0 ? SelectionKey.OP_WRITE : 0));
+            serverKey.interestOps((toClient.position() == 0 ? SelectionKey.OP_READ : 0) | (toServer.position() > 0 ? SelectionKey.OP_WRITE : 0));
+        }
+
+        private void trace(ByteBuffer buffer, int start, int read) {
+            try {
+                traceMessages(buffer, start, read);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void traceMessages(ByteBuffer buffer, int start, int read) throws IOException {
+            long now = System.nanoTime();
+            if (!framing) {
+                trace.write(now, id, read);
+                return;
+            }
+
+            int i = start;
+            int end = start + read;
+            while (i < end) {
+                if (payloadRemaining == 0 && headerLength < Frames.HEADER_LENGTH) {
+                    frameLength = frameLength << 8 | buffer.get(i++) & 0xff;
+                    if (++headerLength < Frames.HEADER_LENGTH) {
+                        continue;
+                    }
+                    payloadRemaining = frameLength;
+                } else {
+                    int length = Math.min(payloadRemaining, end - i);
+                    payloadRemaining -= length;
+                    i += length;
+                }
+                if (payloadRemaining == 0) {
+                    trace.write(now, id, frameLength);
+                    headerLength = 0;
+                    frameLength = 0;
+                }
+            }
+        }
+
+        private void write(ByteBuffer buffer, SocketChannel channel) throws IOException {
+            if (buffer.position() > 0) {
+                buffer.flip();
+                channel.write(buffer); // can be non-blocking
+                buffer.compact();
+            }
+        }
+
+        void close() throws IOException {
+            if (!client.isOpen()) {
+                return;
+            }
+            client.close();
+            server.close();
+            BufferPool.release(toServer);
+            BufferPool.release(toClient);
+            logger.info("Connection {} closed", id);
+        }
+    }
+}
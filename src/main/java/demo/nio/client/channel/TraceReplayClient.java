@@ -0,0 +1,317 @@
+package demo.nio.client.channel;
+
+import demo.codec.Frames;
+import demo.common.Demo;
+import demo.loadgen.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Replays a trace of TraceRecorder against an echo server, once for each of --speeds: every traced connection
+// gets a connection of its own, opened before the replay starts, and every message of the traced length is sent
+// at its traced time divided by the speed. Like LoadGenerator, the load is open-loop and a latency is measured
+// from the time the message was due, so a server that falls behind is charged for the wait.
+//
+// The latency distribution of every replay is compared with the one kept for the same --label and speed
+// in the --baseline file, which keeps the first run of every label and speed unless --update true replaces it.
+// With --maxDrift a p50 or p99 that has drifted up by more than that many percent fails the run with exit code 1,
+// so a trace of the production traffic becomes a regression test that runs on a laptop.
+//
+// usage: TraceReplayClient --trace <file> [--host localhost] [--port 7000] [--speeds 1,2,10] [--framing false]
+//                          [--label <port>] [--baseline <file>] [--update false] [--maxDrift 0]
+public class TraceReplayClient extends Demo {
+
+    private static final long ECHO_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final InetSocketAddress address;
+    private final boolean framing;
+
+    private final ByteBuffer input = ByteBuffer.allocateDirect(64 * 1024);
+    private ByteBuffer payload = ByteBuffer.allocateDirect(0);
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private int completed;
+
+    TraceReplayClient(InetSocketAddress address, boolean framing) {
+        this.address = address;
+        this.framing = framing;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = options(args);
+
+        Trace trace = Trace.read(Paths.get(options.get("trace")));
+        InetSocketAddress address = new InetSocketAddress(options.getOrDefault("host", "localhost"), Integer.parseInt(options.getOrDefault("port", "7000")));
+        boolean framing = Boolean.parseBoolean(options.getOrDefault("framing", "false"));
+        String label = options.getOrDefault("label", String.valueOf(address.getPort()));
+        Path baselinePath = options.containsKey("baseline") ? Paths.get(options.get("baseline")) : null;
+        boolean update = Boolean.parseBoolean(options.getOrDefault("update", "false"));
+        double maxDrift = Double.parseDouble(options.getOrDefault("maxDrift", "0"));
+
+        Properties baseline = new Properties();
+        if (baselinePath != null && Files.exists(baselinePath)) {
+            try (InputStream in = Files.newInputStream(baselinePath)) {
+                baseline.load(in);
+            }
+        }
+
+        logger.info(String.format("Trace of %d message(s) of %d connection(s) over %.3f s", trace.size(), trace.connectionCount, trace.durationNanos() / 1e9));
+        TraceReplayClient client = new TraceReplayClient(address, framing);
+        boolean drifted = false;
+        for (String speed : options.getOrDefault("speeds", "1").split(",")) {
+            LatencyHistogram histogram = client.replay(trace, Double.parseDouble(speed));
+            String key = label + "." + speed + "x.";
+            report(key, histogram);
+            if (baseline.containsKey(key + "p50")) {
+                drifted |= drift(key, baseline, histogram, maxDrift);
+            }
+            if (update || !baseline.containsKey(key + "p50")) {
+                save(key, baseline, histogram);
+            }
+        }
+
+        if (baselinePath != null) {
+            try (OutputStream out = Files.newOutputStream(baselinePath)) {
+                baseline.store(out, "TraceReplayClient latency percentiles in microseconds");
+            }
+        }
+        if (drifted) {
+            System.exit(1);
+        }
+    }
+
+    LatencyHistogram replay(Trace trace, double speed) throws IOException {
+        Selector selector = Selector.open();
+        Connection[] connections = new Connection[trace.connectionCount];
+        for (int i = 0; i < connections.length; i++) {
+            SocketChannel socketChannel = SocketChannel.open(address); // blocking
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            socketChannel.configureBlocking(false);
+
+            connections[i] = new Connection(socketChannel);
+            connections[i].key = socketChannel.register(selector, SelectionKey.OP_READ, connections[i]);
+        }
+
+        Consumer<SelectionKey> action = key -> {
+            try {
+                ((Connection) key.attachment()).handle();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+
+        histogram.reset();
+        completed = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (trace.durationNanos() / speed) + ECHO_TIMEOUT_NANOS;
+        int next = 0;
+        while (completed < trace.size()) {
+            long now = System.nanoTime();
+            if (now >= end) {
+                logger.warn("{} message(s) not echoed in time", trace.size() - completed);
+                break;
+            }
+
+            long due;
+            while (next < trace.size() && (due = start + (long) (trace.sentAt[next] / speed)) <= now) {
+                connections[trace.connections[next]].send(due, trace.sizes[next]);
+                next++;
+            }
+
+            long timeoutNanos = next < trace.size() ? start + (long) (trace.sentAt[next] / speed) - System.nanoTime() : end - now;
+            try {
+                if (timeoutNanos >= TimeUnit.MILLISECONDS.toNanos(1)) {
+                    selector.select(action, TimeUnit.NANOSECONDS.toMillis(timeoutNanos)); // blocking
+                } else {
+                    selector.selectNow(action); // non-blocking
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        for (Connection connection : connections) {
+            connection.channel.close();
+        }
+        selector.close();
+        return histogram;
+    }
+
+    // the payloads are letters, so none of them is "bye"
+    private ByteBuffer payload(int size) {
+        if (payload.capacity() < size) {
+            payload = ByteBuffer.allocateDirect(Math.max(size, payload.capacity() * 2));
+            while (payload.hasRemaining()) {
+                payload.put((byte) ('a' + payload.position() % 26));
+            }
+        }
+        return payload;
+    }
+
+    private static void report(String key, LatencyHistogram histogram) {
+        logger.info(String.format("%s %9d msg  latency us: mean %8.1f p50 %8.1f p90 %8.1f p99 %8.1f p99.9 %8.1f max %8.1f",
+                key.substring(0, key.length() - 1),
+                histogram.getTotalCount(),
+                histogram.getMean() / 1e3,
+                histogram.getValueAtPercentile(50) / 1e3,
+                histogram.getValueAtPercentile(90) / 1e3,
+                histogram.getValueAtPercentile(99) / 1e3,
+                histogram.getValueAtPercentile(99.9) / 1e3,
+                histogram.getMaxValue() / 1e3));
+    }
+
+    // returns true if p50 or p99 has drifted up by more than maxDrift percent (never if maxDrift is 0)
+    private static boolean drift(String key, Properties baseline, LatencyHistogram histogram, double maxDrift) {
+        StringBuilder line = new StringBuilder(key.substring(0, key.length() - 1)).append(" drift from baseline:");
+        boolean drifted = false;
+        for (double percentile : PERCENTILES) {
+            String name = "p" + format(percentile);
+            double before = Double.parseDouble(baseline.getProperty(key + name));
+            double after = histogram.getValueAtPercentile(percentile) / 1e3;
+            double drift = before == 0 ? 0 : (after - before) / before * 100;
+            line.append(String.format(" %s %.1f -> %.1f us (%+.1f%%)", name, before, after, drift));
+            if (maxDrift > 0 && (percentile == 50 || percentile == 99) && drift > maxDrift) {
+                drifted = true;
+            }
+        }
+        if (drifted) {
+            logger.warn("{}, more than {}%", line, format(maxDrift));
+        } else {
+            logger.info("{}", line);
+        }
+        return drifted;
+    }
+
+    private static void save(String key, Properties baseline, LatencyHistogram histogram) {
+        baseline.setProperty(key + "count", String.valueOf(histogram.getTotalCount()));
+        for (double percentile : PERCENTILES) {
+            baseline.setProperty(key + "p" + format(percentile), String.format("%.1f", histogram.getValueAtPercentile(percentile) / 1e3));
+        }
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        if (!options.containsKey("trace")) {
+            throw new IllegalArgumentException("No --trace file");
+        }
+        return options;
+    }
+
+    private class Connection {
+
+        private final SocketChannel channel;
+        private ByteBuffer output = ByteBuffer.allocateDirect(64 * 1024); // in write mode: not yet written
+        private SelectionKey key;
+
+        // the due times and lengths of the messages that have been sent but not yet echoed
+        private long[] dueTimes = new long[16];
+        private int[] lengths = new int[16];
+        private int head;
+        private int size;
+        private long received;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void send(long due, int payloadSize) throws IOException {
+            int length = (framing ? Frames.HEADER_LENGTH : 0) + payloadSize;
+            if (size == dueTimes.length) {
+                dueTimes = grow(dueTimes);
+                lengths = grow(lengths);
+                head = 0;
+            }
+            dueTimes[(head + size) % dueTimes.length] = due;
+            lengths[(head + size) % lengths.length] = length;
+            size++;
+
+            if (output.remaining() < length) {
+                output = ByteBuffer.allocateDirect(Math.max(output.capacity() * 2, output.position() + length)).put(output.flip());
+            }
+            if (framing) {
+                output.putInt(payloadSize);
+            }
+            output.put(output.position(), payload(payloadSize), 0, payloadSize);
+            output.position(output.position() + payloadSize);
+            write();
+        }
+
+        void handle() throws IOException {
+            if (key.isReadable()) {
+                int read;
+                while ((read = channel.read(input)) > 0) { // can be non-blocking
+                    input.clear();
+                    received += read;
+                }
+                if (read < 0) {
+                    throw new IOException("Connection closed by server: " + channel);
+                }
+
+                long now = System.nanoTime();
+                while (size > 0 && received >= lengths[head]) {
+                    received -= lengths[head];
+                    histogram.record(now - dueTimes[head]);
+                    completed++;
+                    head = (head + 1) % dueTimes.length;
+                    size--;
+                }
+            }
+            if (key.isValid() && key.isWritable()) {
+                write();
+            }
+        }
+
+        private void write() throws IOException {
+            output.flip();
+            channel.write(output); // can be non-blocking
+            output.compact();
+
+            int interestOps = output.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+            if (key.interestOps() != interestOps) {
+                key.interestOps(interestOps);
+            }
+        }
+
+        private long[] grow(long[] ring) {
+            long[] grown = new long[ring.length * 2];
+            for (int i = 0; i < size; i++) {
+                grown[i] = ring[(head + i) % ring.length];
+            }
+            return grown;
+        }
+
+        private int[] grow(int[] ring) {
+            int[] grown = new int[ring.length * 2];
+            for (int i = 0; i < size; i++) {
+                grown[i] = ring[(head + i) % ring.length];
+            }
+            return grown;
+        }
+    }
+}
@@ -1,13 +1,14 @@
 package demo.nio.server.channel;
 
+import demo.common.BufferPool;
 import demo.common.Demo;
+import demo.common.Metrics;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
 
 public class NioBlockingEchoServer extends Demo {
 
@@ -15,38 +16,40 @@ public class NioBlockingEchoServer extends Demo {
         ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
         logger.info("Echo server is blocking: {}", serverSocketChannel.isBlocking());
 
-        serverSocketChannel.bind(new InetSocketAddress("localhost", 7000));
+        serverSocketChannel.bind(new InetSocketAddress("localhost", port(args)));
         logger.info("Echo server started: {}", serverSocketChannel);
 
         boolean active = true;
         while (active) {
             SocketChannel socketChannel = serverSocketChannel.accept(); // blocking
             logger.info("Connection accepted: {}", socketChannel);
+            Metrics.connectionAccepted();
             logger.info("Connection is blocking: {}", socketChannel.isBlocking());
 
-            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            ByteBuffer buffer = BufferPool.acquire(1024);
             while (true) {
                 buffer.clear();
                 int read = socketChannel.read(buffer); // blocking
-                logger.info("Echo server read: {} byte(s)", read);
+                if (logSampled()) {
+                    logger.debug("Echo server read: {} byte(s) from {}", read, socketChannel);
+                }
                 if (read < 0) {
                     break;
                 }
+                Metrics.bytesRead(read);
 
                 buffer.flip();
-                byte[] bytes = new byte[buffer.limit()];
-                buffer.get(bytes);
-                String message = new String(bytes, StandardCharsets.UTF_8);
-                logger.info("Echo server received: {}", message);
-                if (message.trim().equals("bye")) {
+                if (isBye(buffer)) {
                     active = false;
                 }
 
-                buffer.flip();
-                socketChannel.write(buffer); // blocking
+                int written = socketChannel.write(buffer); // blocking
+                Metrics.bytesWritten(written);
             }
 
             socketChannel.close();
+            Metrics.connectionClosed();
+            BufferPool.release(buffer);
             logger.info("Connection closed");
         }
 
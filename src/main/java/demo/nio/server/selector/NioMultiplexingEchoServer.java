@@ -1,20 +1,24 @@
 package demo.nio.server.selector;
 
+import demo.common.BufferPool;
 import demo.common.Demo;
+import demo.common.Lifecycle;
+import demo.common.Metrics;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
-import java.util.Iterator;
+import java.util.function.Consumer;
 
+// "bye" or SIGTERM stops the server, which writes the responses already read before it closes the connections
 public class NioMultiplexingEchoServer extends Demo {
 
-    private static boolean active = true;
+    private static final Lifecycle lifecycle = new Lifecycle();
 
     public static void main(String[] args) throws IOException {
         final int ports = 8;
@@ -27,83 +31,125 @@ public class NioMultiplexingEchoServer extends Demo {
             serverSocketChannels[p] = serverSocketChannel;
             serverSocketChannel.configureBlocking(false);
 
-            serverSocketChannel.bind(new InetSocketAddress("localhost", 7000 + p));
+            serverSocketChannel.bind(new InetSocketAddress("localhost", port(args) + p));
             logger.info("Echo server started: {}", serverSocketChannel);
 
             serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
         }
 
-        while (active) {
-            int selected = selector.select(); // blocking
-            logger.info("selected: {} key(s)", selected);
-
-            Iterator<SelectionKey> keysIterator = selector.selectedKeys().iterator();
-            while (keysIterator.hasNext()) {
-                SelectionKey key = keysIterator.next();
-
-                if (key.isAcceptable()) {
-                    accept(selector, key);
-                }
-                if (key.isReadable()) {
-                    keysIterator.remove();
-                    read(selector, key);
-                }
-                if (key.isWritable()) {
-                    keysIterator.remove();
-                    write(key);
-                }
+        lifecycle.wakeUpOnStop(selector);
+        lifecycle.stopOnShutdown();
+
+        // the selector hands the ready keys to the action one by one, without the selected-key set and its iterator
+        Consumer<SelectionKey> action = key -> {
+            try {
+                handle(selector, key);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+
+        while (lifecycle.isActive()) {
+            int selected;
+            try {
+                selected = selector.select(action); // blocking
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            Metrics.selected(selected);
+            if (logSampled()) {
+                logger.debug("selected: {} key(s)", selected);
             }
         }
 
-        for (ServerSocketChannel serverSocketChannel : serverSocketChannels) {
-            serverSocketChannel.close();
-        }
+        lifecycle.drain(selector, NioMultiplexingEchoServer::write, NioMultiplexingEchoServer::close); // closes the server socket channels too
+        lifecycle.terminated();
         logger.info("Echo server finished");
     }
 
+    private static void handle(Selector selector, SelectionKey key) throws IOException {
+        long start = Metrics.handlerStarted();
+        int readyOps = key.readyOps();
+
+        try {
+            if ((readyOps & SelectionKey.OP_ACCEPT) != 0) {
+                accept(selector, key);
+            }
+            if ((readyOps & SelectionKey.OP_READ) != 0 && key.isValid()) {
+                read(key);
+            }
+            if ((readyOps & SelectionKey.OP_WRITE) != 0 && key.isValid()) {
+                write(key);
+            }
+        } catch (IOException e) { // keep-alive connections usually end with a reset: only this one is closed
+            fail(key, e);
+        }
+        Metrics.handlerFinished(start);
+    }
+
+    private static void fail(SelectionKey key, IOException e) throws IOException {
+        if (key.attachment() == null) { // the server channel stays open, the next accept may succeed
+            logger.error("Exception during accepting", e);
+            return;
+        }
+        logger.debug("Closing connection {}: {}", key.channel(), e.toString());
+        close(key);
+    }
+
     private static void accept(Selector selector, SelectionKey key) throws IOException {
         ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
         SocketChannel socketChannel = serverSocketChannel.accept(); // can be non-blocking
         if (socketChannel != null) {
             logger.info("Connection is accepted: {}", socketChannel);
+            Metrics.connectionAccepted();
 
             socketChannel.configureBlocking(false);
-            socketChannel.register(selector, SelectionKey.OP_READ);
+            socketChannel.register(selector, SelectionKey.OP_READ, BufferPool.acquire(1024));
         }
     }
 
-    private static void read(Selector selector, SelectionKey key) throws IOException {
+    private static void read(SelectionKey key) throws IOException {
         SocketChannel socketChannel = (SocketChannel) key.channel();
 
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
         int read = socketChannel.read(buffer); // can be non-blocking
-        logger.info("Echo server read: {} byte(s)", read);
+        if (logSampled()) {
+            logger.debug("Echo server read: {} byte(s) from {}", read, socketChannel);
+        }
+        if (read < 0) {
+            close(key);
+            return;
+        }
+        Metrics.bytesRead(read);
 
         buffer.flip();
-        byte[] bytes = new byte[buffer.limit()];
-        buffer.get(bytes);
-        String message = new String(bytes, StandardCharsets.UTF_8);
-        logger.info("Echo server received: {}", message);
-        if (message.trim().equals("bye")) {
-            active = false;
+        if (isBye(buffer)) {
+            lifecycle.stop();
         }
 
-        buffer.flip();
-        socketChannel.register(selector, SelectionKey.OP_WRITE, buffer);
+        key.interestOps(SelectionKey.OP_WRITE);
     }
 
     private static void write(SelectionKey key) throws IOException {
         SocketChannel socketChannel = (SocketChannel) key.channel();
 
         ByteBuffer buffer = (ByteBuffer) key.attachment();
+        int written = socketChannel.write(buffer); // can be non-blocking
+        Metrics.bytesWritten(written);
+        if (logSampled()) {
+            logger.debug("Echo server wrote: {} byte(s) to {}", written, socketChannel);
+        }
 
-        socketChannel.write(buffer); // can be non-blocking
-        socketChannel.close();
+        if (!buffer.hasRemaining()) { // otherwise the remainder is written on the next OP_WRITE
+            buffer.clear();
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
 
-        buffer.flip();
-        byte[] bytes = new byte[buffer.limit()];
-        buffer.get(bytes);
-        String message = new String(bytes, StandardCharsets.UTF_8);
-        logger.info("Echo server sent: {}", message);
+    private static void close(SelectionKey key) throws IOException {
+        key.channel().close();
+        Metrics.connectionClosed();
+        BufferPool.release((ByteBuffer) key.attachment());
+        logger.info("Connection closed");
     }
 }
@@ -0,0 +1,169 @@
+package demo.nio.server.selector;
+
+import demo.common.BufferPool;
+import demo.common.Demo;
+import demo.common.Lifecycle;
+import demo.common.Metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+// Unlike NioMultiplexingEchoServer, which multiplexes several ports on one selector in one thread,
+// every thread binds its own server socket channel to the same port with SO_REUSEPORT and runs its own
+// accept/read/write loop; the kernel spreads the incoming connections over the listening sockets.
+// The number of threads is the second argument (the number of cores by default).
+// "bye" or SIGTERM stops every thread, which writes the responses already read before it closes its connections.
+// A failing connection is closed alone; a thread whose loop dies closes its listening socket, so the kernel stops
+// handing it connections, and stops the other threads.
+public class NioReusePortEchoServer extends Demo {
+
+    private static final Lifecycle lifecycle = new Lifecycle();
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = port(args);
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        lifecycle.stopOnShutdown();
+
+        Thread[] shards = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+            if (!serverSocketChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                throw new UnsupportedOperationException("SO_REUSEPORT is not supported on this platform");
+            }
+            serverSocketChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            serverSocketChannel.configureBlocking(false);
+
+            serverSocketChannel.bind(new InetSocketAddress("localhost", port));
+            logger.info("Echo server started: {}", serverSocketChannel);
+
+            Selector selector = Selector.open();
+            serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+            lifecycle.wakeUpOnStop(selector); // the other threads are blocked in select()
+
+            shards[i] = new Thread(() -> {
+                try {
+                    serve(selector);
+                } catch (IOException | RuntimeException | Error e) {
+                    logger.error("Exception in the event loop, stopping the server", e);
+                    try {
+                        serverSocketChannel.close();
+                    } catch (IOException ce) {
+                        logger.error("Exception during closing", ce);
+                    }
+                    lifecycle.stop();
+                }
+            }, "reuse-port-" + i);
+            shards[i].start();
+        }
+
+        for (Thread shard : shards) {
+            shard.join();
+        }
+        lifecycle.terminated();
+        logger.info("Echo server finished");
+    }
+
+    private static void serve(Selector selector) throws IOException {
+        while (lifecycle.isActive()) {
+            int selected = selector.select(); // blocking
+            Metrics.selected(selected);
+
+            Iterator<SelectionKey> keysIterator = selector.selectedKeys().iterator();
+            while (keysIterator.hasNext()) {
+                SelectionKey key = keysIterator.next();
+                keysIterator.remove();
+                long start = Metrics.handlerStarted();
+
+                try {
+                    if (key.isAcceptable()) {
+                        accept(selector, key);
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read(key);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write(key);
+                    }
+                } catch (IOException e) { // keep-alive connections usually end with a reset: only this one is closed
+                    fail(key, e);
+                }
+                Metrics.handlerFinished(start);
+            }
+        }
+
+        lifecycle.drain(selector, NioReusePortEchoServer::write, NioReusePortEchoServer::close); // closes the server socket channel too
+    }
+
+    private static void fail(SelectionKey key, IOException e) throws IOException {
+        if (key.attachment() == null) { // the server channel stays open, the next accept may succeed
+            logger.error("Exception during accepting", e);
+            return;
+        }
+        logger.debug("Closing connection {}: {}", key.channel(), e.toString());
+        close(key);
+    }
+
+    private static void accept(Selector selector, SelectionKey key) throws IOException {
+        ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
+        SocketChannel socketChannel = serverSocketChannel.accept(); // can be non-blocking
+        if (socketChannel != null) {
+            logger.info("Connection is accepted: {}", socketChannel);
+            Metrics.connectionAccepted();
+
+            socketChannel.configureBlocking(false);
+            socketChannel.register(selector, SelectionKey.OP_READ, BufferPool.acquire(1024));
+        }
+    }
+
+    private static void read(SelectionKey key) throws IOException {
+        SocketChannel socketChannel = (SocketChannel) key.channel();
+
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
+        int read = socketChannel.read(buffer); // can be non-blocking
+        if (logSampled()) {
+            logger.debug("Echo server read: {} byte(s) from {}", read, socketChannel);
+        }
+        if (read < 0) {
+            close(key);
+            return;
+        }
+        Metrics.bytesRead(read);
+
+        buffer.flip();
+        if (isBye(buffer)) {
+            lifecycle.stop();
+        }
+
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private static void write(SelectionKey key) throws IOException {
+        SocketChannel socketChannel = (SocketChannel) key.channel();
+
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
+        int written = socketChannel.write(buffer); // can be non-blocking
+        Metrics.bytesWritten(written);
+        if (logSampled()) {
+            logger.debug("Echo server wrote: {} byte(s) to {}", written, socketChannel);
+        }
+
+        if (!buffer.hasRemaining()) { // otherwise the remainder is written on the next OP_WRITE
+            buffer.clear();
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private static void close(SelectionKey key) throws IOException {
+        key.channel().close();
+        Metrics.connectionClosed();
+        BufferPool.release((ByteBuffer) key.attachment());
+        logger.info("Connection closed");
+    }
+}
@@ -0,0 +1,324 @@
+package demo.nio.server.selector;
+
+import demo.common.BufferPool;
+import demo.common.Demo;
+import demo.common.Lifecycle;
+import demo.common.Metrics;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A request is a file name relative to the root directory terminated by '\n'.
+// A response is the file size as an 8-byte long (-1 if there is no such file) followed by the file content.
+// Large files are sent with FileChannel.transferTo (sendfile), small files from a cached MappedByteBuffer;
+// -Ddemo.file.zeroCopy=false sends every file by reading it into a buffer and writing the buffer instead.
+// A client that aborts a download, or a file truncated while it is sent, closes that connection only.
+// SIGTERM stops the server, which finishes the files being sent before it closes the connections.
+public class NioSelectorFileServer extends Demo {
+
+    private static final boolean ZERO_COPY = Boolean.parseBoolean(System.getProperty("demo.file.zeroCopy", "true"));
+    private static final long MAPPED_FILE_THRESHOLD = 64 * 1024;
+    private static final int MAPPED_FILES = Math.max(1, Integer.getInteger("demo.file.mappedFiles", 1024));
+
+    // the least recently used mapping is evicted beyond MAPPED_FILES
+    private static final Map<Path, MappedFile> mappedFiles = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, MappedFile> eldest) {
+            return size() > MAPPED_FILES;
+        }
+    };
+
+    private static final Lifecycle lifecycle = new Lifecycle();
+
+    public static void main(String[] args) throws IOException {
+        Path root = Paths.get(args.length > 1 ? args[1] : ".").toRealPath();
+
+        ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.configureBlocking(false);
+
+        serverSocketChannel.bind(new InetSocketAddress("localhost", port(args)));
+        logger.info("File server started: {}, root: {}", serverSocketChannel, root);
+
+        Selector selector = Selector.open();
+        serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        lifecycle.wakeUpOnStop(selector);
+        lifecycle.stopOnShutdown();
+
+        while (lifecycle.isActive()) {
+            int selected = selector.select(); // blocking
+            Metrics.selected(selected);
+
+            Iterator<SelectionKey> keysIterator = selector.selectedKeys().iterator();
+            while (keysIterator.hasNext()) {
+                SelectionKey key = keysIterator.next();
+                keysIterator.remove();
+                long start = Metrics.handlerStarted();
+
+                try {
+                    if (key.isAcceptable()) {
+                        accept(selector, key);
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read(key, root);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write(key, root);
+                    }
+                } catch (IOException e) { // a broken pipe or a reset of one client must not stop the server
+                    fail(key, e);
+                }
+                Metrics.handlerFinished(start);
+            }
+        }
+
+        lifecycle.drain(selector, key -> write(key, root), NioSelectorFileServer::close); // closes the server socket channel too
+        lifecycle.terminated();
+        logger.info("File server finished");
+    }
+
+    private static void accept(Selector selector, SelectionKey key) throws IOException {
+        ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
+        SocketChannel socketChannel = serverSocketChannel.accept(); // can be non-blocking
+        if (socketChannel != null) {
+            logger.info("Connection is accepted: {}", socketChannel);
+            Metrics.connectionAccepted();
+
+            socketChannel.configureBlocking(false);
+            socketChannel.register(selector, SelectionKey.OP_READ, new Transfer());
+        }
+    }
+
+    private static void read(SelectionKey key, Path root) throws IOException {
+        SocketChannel socketChannel = (SocketChannel) key.channel();
+        Transfer transfer = (Transfer) key.attachment();
+
+        int read = socketChannel.read(transfer.request); // can be non-blocking
+        if (read < 0) {
+            close(key);
+            return;
+        }
+        Metrics.bytesRead(read);
+        startNextTransfer(key, root);
+    }
+
+    private static void write(SelectionKey key, Path root) throws IOException {
+        SocketChannel socketChannel = (SocketChannel) key.channel();
+        Transfer transfer = (Transfer) key.attachment();
+
+        if (transfer.header.hasRemaining()) {
+            Metrics.bytesWritten(socketChannel.write(transfer.header)); // can be non-blocking
+            if (transfer.header.hasRemaining()) {
+                return;
+            }
+        }
+
+        if (transfer.mapped != null) {
+            Metrics.bytesWritten(socketChannel.write(transfer.mapped)); // can be non-blocking
+            if (transfer.mapped.hasRemaining()) {
+                return;
+            }
+        } else if (transfer.file != null) {
+            if (!sendFileChunk(socketChannel, transfer)) {
+                return;
+            }
+        }
+
+        transfer.finish();
+        key.interestOps(SelectionKey.OP_READ);
+        startNextTransfer(key, root); // a pipelined request may already be in the buffer
+    }
+
+    // returns true when the whole file has been sent;
+    // a file that has shrunk since its size was sent would never be finished, so it fails the transfer
+    private static boolean sendFileChunk(SocketChannel socketChannel, Transfer transfer) throws IOException {
+        if (ZERO_COPY) {
+            long transferred = transfer.file.transferTo(transfer.position, transfer.size - transfer.position, socketChannel); // can be non-blocking
+            if (transferred == 0 && transfer.position >= transfer.file.size()) {
+                throw new EOFException("File truncated at " + transfer.position + " of " + transfer.size + " byte(s)");
+            }
+            transfer.position += transferred;
+            Metrics.bytesWritten(transferred);
+        } else {
+            ByteBuffer buffer = transfer.copyBuffer;
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                if (transfer.file.read(buffer, transfer.position) < 0) {
+                    throw new EOFException("File truncated at " + transfer.position + " of " + transfer.size + " byte(s)");
+                }
+                buffer.flip();
+            }
+            int written = socketChannel.write(buffer); // can be non-blocking
+            transfer.position += written;
+            Metrics.bytesWritten(written);
+        }
+        return transfer.position >= transfer.size;
+    }
+
+    private static void startNextTransfer(SelectionKey key, Path root) throws IOException {
+        Transfer transfer = (Transfer) key.attachment();
+        if (transfer.isActive()) {
+            return;
+        }
+
+        ByteBuffer request = transfer.request;
+        int end = -1;
+        for (int i = 0; i < request.position(); i++) {
+            if (request.get(i) == '\n') {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (!request.hasRemaining()) {
+                logger.warn("File name is too long, closing connection: {}", key.channel());
+                close(key);
+            }
+            return;
+        }
+
+        byte[] bytes = new byte[end];
+        request.flip();
+        request.get(bytes);
+        request.get(); // '\n'
+        request.compact();
+
+        String name = new String(bytes, StandardCharsets.UTF_8).trim();
+        logger.debug("File server received request: {}", name);
+        open(transfer, root, name);
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private static void open(Transfer transfer, Path root, String name) throws IOException {
+        Path path;
+        try {
+            path = root.resolve(name);
+        } catch (InvalidPathException e) { // a NUL byte, for example: answered like a missing file
+            transfer.start(-1);
+            return;
+        }
+        if (!Files.isRegularFile(path) || !(path = path.toRealPath()).startsWith(root)) {
+            transfer.start(-1);
+            return;
+        }
+
+        long size = Files.size(path);
+        if (ZERO_COPY && size <= MAPPED_FILE_THRESHOLD) {
+            transfer.mapped = map(path).duplicate();
+        } else {
+            transfer.file = FileChannel.open(path, StandardOpenOption.READ);
+            if (!ZERO_COPY) {
+                transfer.copyBuffer = BufferPool.acquire(64 * 1024);
+                transfer.copyBuffer.flip();
+            }
+        }
+        transfer.start(size);
+    }
+
+    // small files stay mapped, so repeated requests are served from the page cache without any syscall but write;
+    // an evicted or stale mapping is unmapped by the garbage collector once no transfer sends it any more
+    private static MappedByteBuffer map(Path path) throws IOException {
+        FileTime lastModifiedTime = Files.getLastModifiedTime(path);
+
+        MappedFile mappedFile = mappedFiles.get(path);
+        if (mappedFile == null || !mappedFile.lastModifiedTime.equals(lastModifiedTime)) {
+            try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+                mappedFile = new MappedFile(fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size()), lastModifiedTime);
+            }
+            mappedFiles.put(path, mappedFile);
+        }
+        return mappedFile.buffer;
+    }
+
+    private static void fail(SelectionKey key, IOException e) {
+        if (!(key.attachment() instanceof Transfer)) { // the server channel stays open, the next accept may succeed
+            logger.error("Exception during accepting", e);
+            return;
+        }
+        logger.debug("Connection failed, closing: {}", e.toString());
+        try {
+            close(key);
+        } catch (IOException ce) {
+            logger.error("Exception during socket closing", ce);
+        }
+    }
+
+    private static void close(SelectionKey key) throws IOException {
+        Transfer transfer = (Transfer) key.attachment();
+        transfer.finish();
+        BufferPool.release(transfer.request);
+
+        key.channel().close();
+        Metrics.connectionClosed();
+        logger.info("Connection closed");
+    }
+
+    private static class Transfer {
+
+        private final ByteBuffer request = BufferPool.acquire(1024);
+        private final ByteBuffer header = ByteBuffer.allocateDirect(Long.BYTES);
+
+        private MappedByteBuffer mapped;
+        private FileChannel file;
+        private ByteBuffer copyBuffer;
+        private long position;
+        private long size;
+        private boolean active;
+
+        void start(long size) {
+            this.size = size;
+            this.position = 0;
+            this.active = true;
+
+            header.clear();
+            header.putLong(size);
+            header.flip();
+        }
+
+        boolean isActive() {
+            return active;
+        }
+
+        void finish() throws IOException {
+            if (file != null) {
+                file.close();
+                file = null;
+            }
+            if (copyBuffer != null) {
+                BufferPool.release(copyBuffer);
+                copyBuffer = null;
+            }
+            mapped = null;
+            active = false;
+        }
+    }
+
+    private static class MappedFile {
+
+        private final MappedByteBuffer buffer;
+        private final FileTime lastModifiedTime;
+
+        MappedFile(MappedByteBuffer buffer, FileTime lastModifiedTime) {
+            this.buffer = buffer;
+            this.lastModifiedTime = lastModifiedTime;
+        }
+    }
+}
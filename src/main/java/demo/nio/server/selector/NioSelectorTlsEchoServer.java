@@ -0,0 +1,187 @@
+package demo.nio.server.selector;
+
+import demo.common.BufferPool;
+import demo.common.Demo;
+import demo.common.Lifecycle;
+import demo.common.Metrics;
+import demo.tls.Tls;
+import demo.tls.TlsChannel;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.function.Consumer;
+
+// The echo server of NioSelectorEchoServer over TLS: every connection is a TlsChannel, which runs the handshake
+// within the reads and writes of the loop. A connection watches OP_WRITE while it has an echo or ciphertext
+// left to write, and is read again at once when the last read has left received bytes behind.
+// A failed handshake or a reset connection closes that connection only.
+// "bye" or SIGTERM stops the server, which writes the responses already read before it closes the connections
+public class NioSelectorTlsEchoServer extends Demo {
+
+    private static final Lifecycle lifecycle = new Lifecycle();
+
+    public static void main(String[] args) throws IOException {
+        ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.configureBlocking(false);
+
+        serverSocketChannel.bind(new InetSocketAddress("localhost", port(args)));
+        Tls.context(); // not in the first handshake
+        logger.info("TLS echo server started: {}", serverSocketChannel);
+
+        Selector selector = Selector.open();
+        serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        lifecycle.wakeUpOnStop(selector);
+        lifecycle.stopOnShutdown();
+
+        Consumer<SelectionKey> action = key -> {
+            try {
+                handle(selector, key);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+
+        while (lifecycle.isActive()) {
+            int selected;
+            try {
+                selected = selector.select(action); // blocking
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            Metrics.selected(selected);
+        }
+
+        lifecycle.drain(selector, NioSelectorTlsEchoServer::write, NioSelectorTlsEchoServer::close);
+        lifecycle.terminated();
+        logger.info("TLS echo server finished");
+    }
+
+    private static void handle(Selector selector, SelectionKey key) throws IOException {
+        long start = Metrics.handlerStarted();
+        int readyOps = key.readyOps();
+
+        if ((readyOps & SelectionKey.OP_ACCEPT) != 0) {
+            try {
+                accept(selector, key);
+            } catch (IOException e) { // EMFILE under load, for example: the server channel stays open, the next accept may succeed
+                logger.error("Exception during accepting", e);
+            }
+        }
+        if ((readyOps & SelectionKey.OP_READ) != 0 && key.isValid()) {
+            read(key);
+        }
+        if ((readyOps & SelectionKey.OP_WRITE) != 0 && key.isValid()) {
+            write(key);
+        }
+        Metrics.handlerFinished(start);
+    }
+
+    private static void accept(Selector selector, SelectionKey key) throws IOException {
+        ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
+        SocketChannel socketChannel = serverSocketChannel.accept(); // can be non-blocking
+        if (socketChannel != null) {
+            logger.info("Connection is accepted: {}", socketChannel);
+            Metrics.connectionAccepted();
+
+            socketChannel.configureBlocking(false);
+            socketChannel.register(selector, SelectionKey.OP_READ, new Connection(new TlsChannel(socketChannel, Tls.serverEngine())));
+        }
+    }
+
+    private static void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer buffer = connection.buffer;
+
+        int read;
+        try {
+            read = connection.channel.read(buffer); // can be non-blocking
+        } catch (IOException e) {
+            fail(key, e);
+            return;
+        }
+        if (read < 0) {
+            close(key);
+            return;
+        }
+
+        if (read > 0) {
+            Metrics.bytesRead(read);
+            buffer.flip();
+            if (isBye(buffer)) {
+                lifecycle.stop();
+            }
+            connection.echoing = true;
+        }
+        updateInterestOps(key, connection);
+    }
+
+    private static void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer buffer = connection.buffer;
+
+        try {
+            if (connection.echoing) {
+                Metrics.bytesWritten(connection.channel.write(buffer)); // can be non-blocking
+                if (!buffer.hasRemaining()) {
+                    buffer.clear();
+                    connection.echoing = false;
+                }
+            } else {
+                connection.channel.flush(); // can be non-blocking
+            }
+        } catch (IOException e) {
+            fail(key, e);
+            return;
+        }
+        updateInterestOps(key, connection);
+
+        // the next request may have arrived with the previous one and will not make the socket readable
+        if (lifecycle.isActive() && (key.interestOps() & SelectionKey.OP_WRITE) == 0 && connection.channel.hasBufferedInput()) {
+            read(key);
+        }
+    }
+
+    private static void updateInterestOps(SelectionKey key, Connection connection) {
+        int interestOps = connection.echoing || connection.channel.hasPendingOutput() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        if (key.interestOps() != interestOps) {
+            key.interestOps(interestOps);
+        }
+    }
+
+    private static void fail(SelectionKey key, IOException e) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        if (e instanceof SSLException) {
+            logger.warn("Closing connection {}: {}", connection.channel.channel(), e.getMessage());
+        } else { // a peer reset is routine
+            logger.debug("Closing connection {}: {}", connection.channel.channel(), e.toString());
+        }
+        close(key);
+    }
+
+    private static void close(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        connection.channel.close();
+        Metrics.connectionClosed();
+        BufferPool.release(connection.buffer);
+        logger.info("Connection closed");
+    }
+
+    private static class Connection {
+
+        private final TlsChannel channel;
+        private final ByteBuffer buffer = BufferPool.acquire(16 * 1024); // a whole record, not a part of it, per echo
+        private boolean echoing;
+
+        Connection(TlsChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
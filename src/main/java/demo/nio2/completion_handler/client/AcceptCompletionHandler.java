@@ -30,5 +30,6 @@ class AcceptCompletionHandler extends Demo implements CompletionHandler<Void, At
     @Override
     public void failed(Throwable t, Attachment attachment) {
         logger.error("Exception during connection accepting", t);
+        attachment.finish();
     }
 }
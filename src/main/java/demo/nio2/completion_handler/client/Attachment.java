@@ -1,22 +1,26 @@
 package demo.nio2.completion_handler.client;
 
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CountDownLatch;
 
 class Attachment {
 
     private final String message;
-    private final AtomicBoolean active;
+    private final CountDownLatch finished = new CountDownLatch(1);
 
-    Attachment(String message, boolean active) {
+    Attachment(String message) {
         this.message = message;
-        this.active = new AtomicBoolean(active);
     }
 
     String getMessage() {
         return message;
     }
 
-    AtomicBoolean getActive() {
-        return active;
+    // called by the handler that completes the exchange, successfully or not
+    void finish() {
+        finished.countDown();
     }
-}
\ No newline at end of file
+
+    void awaitFinished() throws InterruptedException {
+        finished.await();
+    }
+}
@@ -11,7 +11,7 @@ import java.nio.channels.AsynchronousSocketChannel;
 
 public class Nio2CompletionHandlerEchoClient extends Demo {
 
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
         BufferedReader stdIn = new BufferedReader(new InputStreamReader(System.in));
         String message;
         while ((message = stdIn.readLine()) != null) {
@@ -21,12 +21,11 @@ public class Nio2CompletionHandlerEchoClient extends Demo {
             socketChannel.setOption(StandardSocketOptions.SO_SNDBUF, 1024);
             socketChannel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
 
-            Attachment attachment = new Attachment(message, true);
+            Attachment attachment = new Attachment(message);
             AcceptCompletionHandler acceptCompletionHandler = new AcceptCompletionHandler(socketChannel);
-            socketChannel.connect(new InetSocketAddress("localhost", 7000), attachment, acceptCompletionHandler);
+            socketChannel.connect(new InetSocketAddress("localhost", port(args)), attachment, acceptCompletionHandler);
 
-            while (attachment.getActive().get()) {
-            }
+            attachment.awaitFinished();
 
             socketChannel.close();
             logger.info("Echo client finished");
@@ -22,14 +22,15 @@ class ReadCompletionHandler extends Demo implements CompletionHandler<Integer, A
             inputBuffer.flip();
             logger.info("Echo client received: {}", StandardCharsets.UTF_8.newDecoder().decode(inputBuffer));
 
-            attachment.getActive().set(false);
         } catch (IOException e) {
             logger.error("Exception during echo processing", e);
         }
+        attachment.finish();
     }
 
     @Override
     public void failed(Throwable t, Attachment attachment) {
         logger.error("Exception during socket reading", t);
+        attachment.finish();
     }
 }
\ No newline at end of file
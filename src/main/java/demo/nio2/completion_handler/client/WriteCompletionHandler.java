@@ -26,5 +26,6 @@ class WriteCompletionHandler extends Demo implements CompletionHandler<Integer,
     @Override
     public void failed(Throwable t, Attachment attachment) {
         logger.error("Exception during socket writing", t);
+        attachment.finish();
     }
 }
\ No newline at end of file
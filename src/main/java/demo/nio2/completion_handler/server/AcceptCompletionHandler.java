@@ -1,6 +1,9 @@
 package demo.nio2.completion_handler.server;
 
+import demo.common.BufferPool;
 import demo.common.Demo;
+import demo.common.Metrics;
+import demo.common.TimingWheel;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousServerSocketChannel;
@@ -18,11 +21,13 @@ class AcceptCompletionHandler extends Demo implements CompletionHandler<Asynchro
     @Override
     public void completed(AsynchronousSocketChannel socketChannel, Void attachment) {
         logger.info("Connection accepted: {}", socketChannel);
+        Metrics.connectionAccepted();
 
         serverSocketChannel.accept(null, this);
 
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-        ReadCompletionHandler readCompletionHandler = new ReadCompletionHandler(socketChannel, buffer);
+        TimingWheel.Timeout<AsynchronousSocketChannel> idleTimeout = Nio2CompletionHandlerEchoServer.scheduleIdleTimeout(socketChannel);
+        ByteBuffer buffer = BufferPool.acquire(1024);
+        ReadCompletionHandler readCompletionHandler = new ReadCompletionHandler(socketChannel, buffer, idleTimeout);
         socketChannel.read(buffer, null, readCompletionHandler);
     }
 
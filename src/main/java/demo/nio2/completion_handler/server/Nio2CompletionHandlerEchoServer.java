@@ -1,22 +1,61 @@
 package demo.nio2.completion_handler.server;
 
+import demo.common.ChannelGroups;
 import demo.common.Demo;
+import demo.common.IdleTimeouts;
+import demo.common.TimingWheel;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
 
+// -Ddemo.idleTimeoutMillis closes a connection that has not been echoed that long after it was accepted
 public class Nio2CompletionHandlerEchoServer extends Demo {
 
+    // null when idle connections are never closed
+    private static final IdleTimeouts<AsynchronousSocketChannel> idleTimeouts = IdleTimeouts.isEnabled()
+            ? new IdleTimeouts<>("idle-timeouts-", Nio2CompletionHandlerEchoServer::closeIdle) : null;
+
     public static void main(String[] args) throws IOException {
-        AsynchronousServerSocketChannel serverSocketChannel = AsynchronousServerSocketChannel.open();
-        serverSocketChannel.bind(new InetSocketAddress(7000));
+        AsynchronousServerSocketChannel serverSocketChannel = AsynchronousServerSocketChannel.open(ChannelGroups.open());
+        serverSocketChannel.bind(new InetSocketAddress(port(args)));
         logger.info("Echo server started");
 
+        if (idleTimeouts != null) {
+            idleTimeouts.start();
+        }
+
         AcceptCompletionHandler acceptCompletionHandler = new AcceptCompletionHandler(serverSocketChannel);
         serverSocketChannel.accept(null, acceptCompletionHandler);
 
         System.in.read();
         logger.info("Echo server finished");
     }
+
+    // a connection is read once and written once, so its timeout is scheduled once and never extended
+    static TimingWheel.Timeout<AsynchronousSocketChannel> scheduleIdleTimeout(AsynchronousSocketChannel socketChannel) {
+        if (idleTimeouts == null) {
+            return null;
+        }
+        TimingWheel.Timeout<AsynchronousSocketChannel> idleTimeout = new TimingWheel.Timeout<>(socketChannel);
+        idleTimeouts.schedule(idleTimeout, System.nanoTime() + IdleTimeouts.TIMEOUT_NANOS);
+        return idleTimeout;
+    }
+
+    static void cancelIdleTimeout(TimingWheel.Timeout<AsynchronousSocketChannel> idleTimeout) {
+        if (idleTimeout != null) {
+            idleTimeouts.cancel(idleTimeout);
+        }
+    }
+
+    // the pending read or write fails with AsynchronousCloseException, and its handler releases the buffer
+    private static void closeIdle(AsynchronousSocketChannel socketChannel) {
+        logger.info("Connection idle, closing: {}", socketChannel);
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            logger.error("Exception during socket closing", e);
+        }
+    }
 }
@@ -1,39 +1,77 @@
 package demo.nio2.completion_handler.server;
 
+import demo.common.BufferPool;
 import demo.common.Demo;
+import demo.common.Metrics;
+import demo.common.TimingWheel;
+import demo.common.Processing;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
-import java.nio.charset.StandardCharsets;
 
 class ReadCompletionHandler extends Demo implements CompletionHandler<Integer, Void> {
 
     private final AsynchronousSocketChannel socketChannel;
     private final ByteBuffer buffer;
+    private final TimingWheel.Timeout<AsynchronousSocketChannel> idleTimeout;
 
-    ReadCompletionHandler(AsynchronousSocketChannel socketChannel, ByteBuffer buffer) {
+    ReadCompletionHandler(AsynchronousSocketChannel socketChannel, ByteBuffer buffer, TimingWheel.Timeout<AsynchronousSocketChannel> idleTimeout) {
         this.socketChannel = socketChannel;
         this.buffer = buffer;
+        this.idleTimeout = idleTimeout;
     }
 
     @Override
     public void completed(Integer bytesRead, Void attachment) {
-        logger.info("Echo server read: {} byte(s)", bytesRead);
+        long start = Metrics.handlerStarted();
+        if (bytesRead < 0) { // the client has closed the connection without a request
+            close();
+            Metrics.handlerFinished(start);
+            return;
+        }
+        Metrics.bytesRead(bytesRead);
+        if (logSampled()) {
+            logger.debug("Echo server read: {} byte(s) from {}", bytesRead, socketChannel);
+        }
 
         buffer.flip();
-        byte[] bytes = new byte[buffer.limit()];
-        buffer.get(bytes);
-        String message = new String(bytes, StandardCharsets.UTF_8);
-        logger.info("Echo server received: {}", message);
+        if (Processing.isOffloaded()) {
+            Processing.execute(this::respond);
+        } else {
+            respond();
+        }
+        Metrics.handlerFinished(start);
+    }
 
-        WriteCompletionHandler writeCompletionHandler = new WriteCompletionHandler(socketChannel);
-        buffer.flip();
+    private void respond() {
+        Processing.process(buffer);
+
+        WriteCompletionHandler writeCompletionHandler = new WriteCompletionHandler(socketChannel, buffer, idleTimeout);
         socketChannel.write(buffer, null, writeCompletionHandler);
     }
 
     @Override
     public void failed(Throwable t, Void attachment) {
-        logger.error("Exception during socket reading", t);
+        if (t instanceof AsynchronousCloseException) { // closed by the idle timeout
+            logger.debug("Connection closed during socket reading: {}", socketChannel);
+        } else {
+            logger.error("Exception during socket reading", t);
+        }
+        close();
+    }
+
+    private void close() {
+        Nio2CompletionHandlerEchoServer.cancelIdleTimeout(idleTimeout);
+        BufferPool.release(buffer);
+        try {
+            socketChannel.close();
+            Metrics.connectionClosed();
+            logger.info("Connection closed");
+        } catch (IOException e) {
+            logger.error("Exception during socket closing", e);
+        }
     }
 }
@@ -1,33 +1,59 @@
 package demo.nio2.completion_handler.server;
 
+import demo.common.BufferPool;
 import demo.common.Demo;
+import demo.common.Metrics;
+import demo.common.TimingWheel;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 
 class WriteCompletionHandler extends Demo implements CompletionHandler<Integer, Void> {
 
     private final AsynchronousSocketChannel socketChannel;
+    private final ByteBuffer buffer;
+    private final TimingWheel.Timeout<AsynchronousSocketChannel> idleTimeout;
 
-    WriteCompletionHandler(AsynchronousSocketChannel socketChannel) {
+    WriteCompletionHandler(AsynchronousSocketChannel socketChannel, ByteBuffer buffer, TimingWheel.Timeout<AsynchronousSocketChannel> idleTimeout) {
         this.socketChannel = socketChannel;
+        this.buffer = buffer;
+        this.idleTimeout = idleTimeout;
     }
 
     @Override
     public void completed(Integer bytesWritten, Void attachment) {
-        logger.info("Echo server wrote: {} byte(s)", bytesWritten);
+        long start = Metrics.handlerStarted();
+        Metrics.bytesWritten(bytesWritten);
+        if (logSampled()) {
+            logger.debug("Echo server wrote: {} byte(s) to {}", bytesWritten, socketChannel);
+        }
+
+        close();
+        Metrics.handlerFinished(start);
+    }
+
+    @Override
+    public void failed(Throwable t, Void attachment) {
+        if (t instanceof AsynchronousCloseException) { // closed by the idle timeout
+            logger.debug("Connection closed during socket writing: {}", socketChannel);
+        } else {
+            logger.error("Exception during socket writing", t);
+        }
+        close();
+    }
 
+    private void close() {
+        Nio2CompletionHandlerEchoServer.cancelIdleTimeout(idleTimeout);
+        BufferPool.release(buffer);
         try {
             socketChannel.close();
+            Metrics.connectionClosed();
             logger.info("Connection closed");
         } catch (IOException e) {
             logger.error("Exception during socket closing", e);
         }
     }
-
-    @Override
-    public void failed(Throwable t, Void attachment) {
-        logger.error("Exception during socket writing", t);
-    }
 }
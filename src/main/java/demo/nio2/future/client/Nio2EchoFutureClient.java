@@ -24,7 +24,7 @@ public class Nio2EchoFutureClient extends Demo {
             socketChannel.setOption(StandardSocketOptions.SO_SNDBUF, 1024);
             socketChannel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
 
-            socketChannel.connect(new InetSocketAddress("localhost", 7000)).get();
+            socketChannel.connect(new InetSocketAddress("localhost", port(args))).get();
 
             ByteBuffer outputBuffer = ByteBuffer.wrap(message.getBytes());
             socketChannel.write(outputBuffer).get();
@@ -0,0 +1,125 @@
+package demo.nio2.future.server;
+
+import demo.common.BufferPool;
+import demo.common.ChannelGroups;
+import demo.common.Demo;
+import demo.common.Metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CompletableFuture;
+
+// Unlike Nio2EchoFutureServerThreadPool, no thread waits for a Future: the completion of a read starts the write,
+// and the completion of the write starts the next read, so every connection is served by the few threads
+// of the channel group (see ChannelGroups) and an idle connection costs no thread at all.
+public class Nio2EchoCompletableFutureServer extends Demo {
+
+    public static void main(String[] args) throws IOException {
+        AsynchronousServerSocketChannel serverSocketChannel = AsynchronousServerSocketChannel.open(ChannelGroups.open());
+        serverSocketChannel.bind(new InetSocketAddress("localhost", port(args)));
+        logger.info("Echo server started: {}", serverSocketChannel);
+
+        accept(serverSocketChannel);
+
+        System.in.read();
+        serverSocketChannel.close();
+        logger.info("Echo server finished");
+    }
+
+    private static void accept(AsynchronousServerSocketChannel serverSocketChannel) {
+        Completion.<AsynchronousSocketChannel>of(completion -> serverSocketChannel.accept(completion, Completion.handler()))
+                .whenComplete((socketChannel, e) -> {
+                    if (e != null) {
+                        if (serverSocketChannel.isOpen()) {
+                            logger.error("Exception during connection accepting", e);
+                        }
+                        return;
+                    }
+                    accept(serverSocketChannel); // can be non-blocking
+
+                    logger.info("Connection: {}", socketChannel);
+                    Metrics.connectionAccepted();
+                    echo(socketChannel, BufferPool.acquire(1024));
+                });
+    }
+
+    // every round starts a new chain instead of returning the next round's future,
+    // so a long-lived connection does not build up an ever longer chain of dependent futures
+    private static void echo(AsynchronousSocketChannel socketChannel, ByteBuffer buffer) {
+        Completion.<Integer>of(completion -> socketChannel.read(buffer, completion, Completion.handler()))
+                .thenCompose(bytesRead -> {
+                    if (bytesRead < 0) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    Metrics.bytesRead(bytesRead);
+                    buffer.flip();
+                    return write(socketChannel, buffer).thenApply(written -> true);
+                })
+                .whenComplete((active, e) -> {
+                    if (e == null && active) {
+                        buffer.clear();
+                        echo(socketChannel, buffer);
+                    } else {
+                        close(socketChannel, buffer);
+                    }
+                });
+    }
+
+    // completes when the whole buffer has been written
+    private static CompletableFuture<Integer> write(AsynchronousSocketChannel socketChannel, ByteBuffer buffer) {
+        return Completion.<Integer>of(completion -> socketChannel.write(buffer, completion, Completion.handler()))
+                .thenCompose(written -> {
+                    Metrics.bytesWritten(written);
+                    return buffer.hasRemaining() ? write(socketChannel, buffer) : CompletableFuture.completedFuture(written);
+                });
+    }
+
+    private static void close(AsynchronousSocketChannel socketChannel, ByteBuffer buffer) {
+        BufferPool.release(buffer);
+        try {
+            socketChannel.close();
+            Metrics.connectionClosed();
+            logger.info("Connection finished");
+        } catch (IOException e) {
+            logger.error("Exception during socket closing", e);
+        }
+    }
+
+    // adapts the CompletionHandler methods of the asynchronous channels to CompletableFuture
+    // with a single stateless handler, the future itself being the attachment
+    private static class Completion {
+
+        private static final CompletionHandler<Object, CompletableFuture<Object>> HANDLER = new CompletionHandler<Object, CompletableFuture<Object>>() {
+
+            @Override
+            public void completed(Object result, CompletableFuture<Object> future) {
+                future.complete(result);
+            }
+
+            @Override
+            public void failed(Throwable e, CompletableFuture<Object> future) {
+                future.completeExceptionally(e);
+            }
+        };
+
+        static <V> CompletableFuture<V> of(Operation<V> operation) {
+            CompletableFuture<V> future = new CompletableFuture<>();
+            operation.start(future);
+            return future;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        static <V> CompletionHandler<V, CompletableFuture<V>> handler() {
+            return (CompletionHandler) HANDLER;
+        }
+
+        private interface Operation<V> {
+
+            void start(CompletableFuture<V> completion);
+        }
+    }
+}
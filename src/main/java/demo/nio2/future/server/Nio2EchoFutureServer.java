@@ -1,6 +1,8 @@
 package demo.nio2.future.server;
 
+import demo.common.BufferPool;
 import demo.common.Demo;
+import demo.common.Metrics;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -19,10 +21,9 @@ public class Nio2EchoFutureServer extends Demo {
         AsynchronousServerSocketChannel serverSocketChannel = AsynchronousServerSocketChannel.open();
 
         serverSocketChannel.setOption(StandardSocketOptions.SO_RCVBUF, 1024);
-        serverSocketChannel.setOption(StandardSocketOptions.SO_SNDBUF, 1024);
         serverSocketChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
 
-        serverSocketChannel.bind(new InetSocketAddress("localhost", 7000));
+        serverSocketChannel.bind(new InetSocketAddress("localhost", port(args)));
         logger.info("Echo server started: {}", serverSocketChannel);
 
         while (active) {
@@ -30,13 +31,16 @@ public class Nio2EchoFutureServer extends Demo {
 
             AsynchronousSocketChannel socketChannel = socketChannelFuture.get();
             logger.info("Connection: {}", socketChannel);
+            Metrics.connectionAccepted();
 
-            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            ByteBuffer buffer = BufferPool.acquire(1024);
 
-            while (socketChannel.read(buffer).get() != -1) {
+            int read;
+            while ((read = socketChannel.read(buffer).get()) != -1) {
+                Metrics.bytesRead(read);
                 buffer.flip();
 
-                socketChannel.write(buffer).get();
+                Metrics.bytesWritten(socketChannel.write(buffer).get());
                 if (buffer.hasRemaining()) {
                     buffer.compact();
                 } else {
@@ -45,6 +49,8 @@ public class Nio2EchoFutureServer extends Demo {
             }
 
             socketChannel.close();
+            Metrics.connectionClosed();
+            BufferPool.release(buffer);
             logger.info("Connection finished");
         }
 
@@ -1,6 +1,9 @@
 package demo.nio2.future.server;
 
+import demo.common.BufferPool;
 import demo.common.Demo;
+import demo.common.Lifecycle;
+import demo.common.Metrics;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -8,46 +11,75 @@ import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
+// SIGTERM stops the server: the input of every connection is shut down, so each worker writes
+// the response it is echoing, reads the end of stream and closes its connection
 public class Nio2EchoFutureServerThreadPool extends Demo {
 
-    private static boolean active = true;
+    private static final Lifecycle lifecycle = new Lifecycle();
+    private static final Set<AsynchronousSocketChannel> socketChannels = ConcurrentHashMap.newKeySet();
 
     public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
         AsynchronousServerSocketChannel serverSocketChannel = AsynchronousServerSocketChannel.open();
 
         serverSocketChannel.setOption(StandardSocketOptions.SO_RCVBUF, 1024);
-        serverSocketChannel.setOption(StandardSocketOptions.SO_SNDBUF, 1024);
         serverSocketChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
 
-        serverSocketChannel.bind(new InetSocketAddress("localhost", 7000));
+        serverSocketChannel.bind(new InetSocketAddress("localhost", port(args)));
         logger.info("Echo server started: {}", serverSocketChannel);
 
         ExecutorService executorService = Executors.newCachedThreadPool();
 
-        while (active) {
+        lifecycle.closeOnStop(serverSocketChannel); // the pending accept fails with AsynchronousCloseException
+        lifecycle.onStop(Nio2EchoFutureServerThreadPool::shutdownInputs);
+        lifecycle.stopOnShutdown();
+
+        while (lifecycle.isActive()) {
             Future<AsynchronousSocketChannel> socketChannelFuture = serverSocketChannel.accept();
 
-            AsynchronousSocketChannel socketChannel = socketChannelFuture.get();
+            AsynchronousSocketChannel socketChannel;
+            try {
+                socketChannel = socketChannelFuture.get();
+            } catch (ExecutionException e) {
+                if (lifecycle.isActive()) {
+                    throw e;
+                }
+                break;
+            }
             logger.info("Connection: {}", socketChannel);
 
+            socketChannels.add(socketChannel);
             Runnable worker = new Worker(socketChannel);
             executorService.submit(worker);
         }
 
         logger.info("Echo server is finishing");
-        executorService.shutdown();
-        while (!executorService.isTerminated()) {
+        if (!lifecycle.awaitTermination(executorService)) {
+            for (AsynchronousSocketChannel socketChannel : socketChannels) {
+                socketChannel.close();
+            }
         }
 
-        serverSocketChannel.close();
+        lifecycle.terminated();
         logger.info("Echo server finished");
     }
 
+    private static void shutdownInputs() {
+        for (AsynchronousSocketChannel socketChannel : socketChannels) {
+            try {
+                socketChannel.shutdownInput();
+            } catch (IOException e) {
+                // already closed by the client
+            }
+        }
+    }
+
     private static class Worker implements Runnable {
 
         private final AsynchronousSocketChannel socketChannel;
@@ -58,14 +90,17 @@ public class Nio2EchoFutureServerThreadPool extends Demo {
 
         @Override
         public void run() {
+            ByteBuffer buffer = BufferPool.acquire(1024);
             try {
                 logger.info("Connection: {}", socketChannel);
+                Metrics.connectionAccepted();
 
-                ByteBuffer buffer = ByteBuffer.allocate(1024);
-                while (socketChannel.read(buffer).get() != -1) {
+                int read;
+                while ((read = socketChannel.read(buffer).get()) != -1) {
+                    Metrics.bytesRead(read);
                     buffer.flip();
 
-                    socketChannel.write(buffer).get();
+                    Metrics.bytesWritten(socketChannel.write(buffer).get());
 
                     if (buffer.hasRemaining()) {
                         buffer.compact();
@@ -76,9 +111,12 @@ public class Nio2EchoFutureServerThreadPool extends Demo {
             } catch (InterruptedException | ExecutionException e) {
                 e.printStackTrace();
             } finally {
+                socketChannels.remove(socketChannel);
+                BufferPool.release(buffer);
                 try {
                     socketChannel.close();
-                    System.out.println("Connection finished");
+                    Metrics.connectionClosed();
+                    logger.info("Connection finished");
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -13,7 +13,7 @@ public class EchoClient {
             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
 
             String message = "Hello!";
-            out.print(message);
+            out.println(message);
             out.flush();
             System.out.println("Sent message to server: " + message);
 
@@ -1,30 +1,33 @@
 package demo.patterns.proactor.echo;
 
-import java.nio.ByteBuffer;
+import demo.common.IdleTimeouts;
+import demo.tls.Tls;
+import demo.tls.TlsAsynchronousSocketChannel;
+
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 
-public class AcceptCompletionHandler implements CompletionHandler<AsynchronousSocketChannel, Session> {
+public class AcceptCompletionHandler implements CompletionHandler<AsynchronousSocketChannel, Void> {
 
     private final AsynchronousServerSocketChannel listener;
+    private final IdleTimeouts<Session> idleTimeouts;
 
-    public AcceptCompletionHandler(AsynchronousServerSocketChannel listener) {
+    public AcceptCompletionHandler(AsynchronousServerSocketChannel listener, IdleTimeouts<Session> idleTimeouts) {
         this.listener = listener;
+        this.idleTimeouts = idleTimeouts;
     }
 
     @Override
-    public void completed(AsynchronousSocketChannel socketChannel, Session session) {
-        Session newSession = new Session();
-        listener.accept(newSession, this);
+    public void completed(AsynchronousSocketChannel socketChannel, Void attachment) {
+        listener.accept(null, this);
 
-        ByteBuffer inputBuffer = ByteBuffer.allocate(1024);
-        ReadCompletionHandler readCompletionHandler = new ReadCompletionHandler(socketChannel, inputBuffer);
-        socketChannel.read(inputBuffer, session, readCompletionHandler);
+        Session session = new Session(Tls.ENABLED ? new TlsAsynchronousSocketChannel(socketChannel, Tls.serverEngine()) : socketChannel, idleTimeouts);
+        session.open();
     }
 
     @Override
-    public void failed(Throwable e, Session session) {
+    public void failed(Throwable e, Void attachment) {
         e.printStackTrace();
     }
 }
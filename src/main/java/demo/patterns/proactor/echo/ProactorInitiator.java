@@ -1,5 +1,8 @@
 package demo.patterns.proactor.echo;
 
+import demo.common.ChannelGroups;
+import demo.common.IdleTimeouts;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.AsynchronousServerSocketChannel;
@@ -7,11 +10,16 @@ import java.nio.channels.AsynchronousServerSocketChannel;
 public class ProactorInitiator {
 
     public void initiateProactiveServer(int port) throws IOException {
-        AsynchronousServerSocketChannel listener = AsynchronousServerSocketChannel.open().bind(new InetSocketAddress(port));
+        AsynchronousServerSocketChannel listener = AsynchronousServerSocketChannel.open(ChannelGroups.open()).bind(new InetSocketAddress(port));
+
+        IdleTimeouts<Session> idleTimeouts = null;
+        if (IdleTimeouts.isEnabled()) {
+            idleTimeouts = new IdleTimeouts<>("proactor-idle-timeouts-", Session::expire);
+            idleTimeouts.start();
+        }
 
-        Session state = new Session();
-        AcceptCompletionHandler acceptCompletionHandler = new AcceptCompletionHandler(listener);
-        listener.accept(state, acceptCompletionHandler);
+        AcceptCompletionHandler acceptCompletionHandler = new AcceptCompletionHandler(listener, idleTimeouts);
+        listener.accept(null, acceptCompletionHandler);
     }
 
     public static void main(String[] args) throws IOException {
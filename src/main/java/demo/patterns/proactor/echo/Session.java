@@ -1,5 +1,192 @@
 package demo.patterns.proactor.echo;
 
-// used to hold client session specific state across a series of completion events
-public class Session {
+import demo.codec.FrameDecoder;
+import demo.codec.FrameEncoder;
+import demo.codec.Frames;
+import demo.common.BufferPool;
+import demo.common.IdleTimeouts;
+import demo.common.Metrics;
+import demo.common.Processing;
+import demo.common.TimingWheel;
+import demo.journal.Journal;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.util.concurrent.TimeUnit;
+
+// used to hold client session specific state across a series of completion events:
+// the channel and its pooled buffers, so a long-lived connection allocates nothing per echo.
+// The completion handlers get the session as the attachment, so one pair of them serves every session.
+// -Ddemo.codec.framing=true echoes length-prefixed frames instead of whatever one read returns; -Ddemo.journal=true journals them.
+// The session is the task that processes the received messages when the processing is offloaded.
+// -Ddemo.idleTimeoutMillis closes a session whose reads and writes have not completed for that long.
+// -Ddemo.tls=true gives the session a TLS channel, which reads and writes plaintext like the socket channel.
+public class Session implements Runnable {
+
+    private static final ReadCompletionHandler readCompletionHandler = new ReadCompletionHandler();
+    private static final WriteCompletionHandler writeCompletionHandler = new WriteCompletionHandler();
+
+    private final AsynchronousSocketChannel socketChannel;
+
+    private final ByteBuffer buffer;
+    private final ByteBuffer[] buffers;
+
+    private final FrameDecoder decoder;
+    private final FrameEncoder encoder;
+    private final int journalId;
+
+    private final IdleTimeouts<Session> idleTimeouts;
+    private final TimingWheel.Timeout<Session> idleTimeout;
+    private volatile long lastActivityAt;
+
+    Session(AsynchronousSocketChannel socketChannel, IdleTimeouts<Session> idleTimeouts) {
+        this.socketChannel = socketChannel;
+        this.idleTimeouts = idleTimeouts;
+        this.idleTimeout = idleTimeouts != null ? new TimingWheel.Timeout<>(this) : null;
+        if (Frames.ENABLED) {
+            this.buffer = null;
+            this.buffers = null;
+            this.decoder = new FrameDecoder();
+            this.encoder = new FrameEncoder();
+            this.journalId = Journal.newConnection();
+        } else {
+            this.buffer = BufferPool.acquire(1024);
+            this.buffers = new ByteBuffer[]{buffer};
+            this.decoder = null;
+            this.encoder = null;
+            this.journalId = 0;
+        }
+    }
+
+    void open() {
+        Metrics.connectionAccepted();
+        lastActivityAt = System.nanoTime();
+        if (idleTimeouts != null) {
+            idleTimeouts.schedule(idleTimeout, lastActivityAt + IdleTimeouts.TIMEOUT_NANOS);
+        }
+        read();
+    }
+
+    void read() {
+        socketChannel.read(Frames.ENABLED ? decoder.buffer() : buffer, this, readCompletionHandler);
+    }
+
+    void completeRead(int bytesRead) {
+        if (bytesRead < 0) {
+            close();
+            return;
+        }
+        lastActivityAt = System.nanoTime();
+        Metrics.bytesRead(bytesRead);
+
+        if (!Frames.ENABLED) {
+            buffer.flip();
+            respond();
+            return;
+        }
+
+        try {
+            ByteBuffer frame;
+            while ((frame = decoder.nextFrame()) != null) {
+                Journal.append(journalId, lastActivityAt, frame);
+                encoder.add(frame);
+            }
+        } catch (ProtocolException e) {
+            close();
+            return;
+        }
+
+        if (encoder.isEmpty()) { // an incomplete frame
+            decoder.compact();
+            read();
+        } else {
+            respond();
+        }
+    }
+
+    private void respond() {
+        if (Processing.isOffloaded()) {
+            Processing.execute(this);
+        } else {
+            run();
+        }
+    }
+
+    @Override
+    public void run() {
+        if (Frames.ENABLED) {
+            ByteBuffer[] frames = encoder.buffers();
+            for (int i = encoder.offset() + 1; i < encoder.offset() + encoder.length(); i += 2) { // payloads are at odd indexes
+                Processing.process(frames[i]);
+            }
+        } else {
+            Processing.process(buffer);
+        }
+        write();
+    }
+
+    // gathering write even for the single buffer, so both modes complete with the same handler;
+    // no timeout, which also saves scheduling a timer task for every write
+    private void write() {
+        if (Frames.ENABLED) {
+            socketChannel.write(encoder.buffers(), encoder.offset(), encoder.length(), 0, TimeUnit.MILLISECONDS, this, writeCompletionHandler);
+        } else {
+            socketChannel.write(buffers, 0, 1, 0, TimeUnit.MILLISECONDS, this, writeCompletionHandler);
+        }
+    }
+
+    void completeWrite() {
+        lastActivityAt = System.nanoTime();
+        if (Frames.ENABLED) {
+            if (encoder.written()) {
+                decoder.compact();
+                read();
+            } else {
+                write();
+            }
+        } else {
+            if (buffer.hasRemaining()) {
+                write();
+            } else {
+                buffer.clear();
+                read();
+            }
+        }
+    }
+
+    // runs on the timeout thread: only the channel is closed here, the pending read or write then fails
+    // and its handler closes the session on a thread of the channel group, which owns the buffers
+    void expire() {
+        if (System.nanoTime() - lastActivityAt < IdleTimeouts.TIMEOUT_NANOS) {
+            idleTimeouts.schedule(idleTimeout, lastActivityAt + IdleTimeouts.TIMEOUT_NANOS);
+            return;
+        }
+
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    void close() {
+        Metrics.connectionClosed();
+        if (idleTimeouts != null) {
+            idleTimeouts.cancel(idleTimeout);
+        }
+
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        if (Frames.ENABLED) {
+            decoder.release();
+        } else {
+            BufferPool.release(buffer);
+        }
+    }
 }
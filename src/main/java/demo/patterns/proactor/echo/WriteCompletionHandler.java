@@ -1,28 +1,21 @@
 package demo.patterns.proactor.echo;
 
-import java.io.IOException;
-import java.nio.channels.AsynchronousSocketChannel;
-import java.nio.channels.CompletionHandler;
-
-public class WriteCompletionHandler implements CompletionHandler<Integer, Session> {
+import demo.common.Metrics;
 
-    private final AsynchronousSocketChannel socketChannel;
+import java.nio.channels.CompletionHandler;
 
-    public WriteCompletionHandler(AsynchronousSocketChannel socketChannel) {
-        this.socketChannel = socketChannel;
-    }
+public class WriteCompletionHandler implements CompletionHandler<Long, Session> {
 
     @Override
-    public void completed(Integer bytesWritten, Session attachment) {
-        try {
-            socketChannel.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public void completed(Long bytesWritten, Session session) {
+        long start = Metrics.handlerStarted();
+        Metrics.bytesWritten(bytesWritten);
+        session.completeWrite();
+        Metrics.handlerFinished(start);
     }
 
     @Override
-    public void failed(Throwable e, Session attachment) {
-        e.printStackTrace();
+    public void failed(Throwable e, Session session) {
+        session.close();
     }
 }
@@ -1,26 +1,45 @@
 package demo.patterns.reactor.echo;
 
+import demo.common.Demo;
+import demo.common.Metrics;
+
 import java.io.IOException;
+import java.net.StandardSocketOptions;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.RejectedExecutionException;
 
-public class AcceptEventHandler implements EventHandler {
+public class AcceptEventHandler extends Demo implements EventHandler {
 
-    private final Selector demultiplexer;
+    private final Dispatcher[] workers;
+    private int next;
 
-    public AcceptEventHandler(Selector demultiplexer) {
-        this.demultiplexer = demultiplexer;
+    public AcceptEventHandler(Dispatcher... workers) {
+        this.workers = workers;
     }
 
     @Override
     public void handleEvent(SelectionKey handle) throws IOException {
         ServerSocketChannel serverSocketChannel = (ServerSocketChannel) handle.channel();
-        SocketChannel socketChannel = serverSocketChannel.accept();
-        if (socketChannel != null) {
+        SocketChannel socketChannel;
+        while ((socketChannel = serverSocketChannel.accept()) != null) { // all the pending connections, as an edge-triggered key requires
+            Metrics.connectionAccepted();
             socketChannel.configureBlocking(false);
-            socketChannel.register(demultiplexer, SelectionKey.OP_READ);
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true); // a response must not wait for the ACK of the previous one
+
+            Dispatcher worker = workers[next];
+            next = (next + 1) % workers.length;
+            try {
+                worker.registerConnection(socketChannel);
+            } catch (RejectedExecutionException e) { // the worker is that far behind: shed the connection
+                logger.warn("Connection rejected: {}", e.getMessage());
+                socketChannel.close();
+                Metrics.connectionClosed();
+            }
+        }
+        if (handle instanceof EpollSelectionKey epollHandle) {
+            epollHandle.clearReadable();
         }
     }
 }
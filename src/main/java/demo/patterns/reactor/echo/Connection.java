@@ -0,0 +1,318 @@
+package demo.patterns.reactor.echo;
+
+import demo.codec.FrameDecoder;
+import demo.codec.FrameEncoder;
+import demo.codec.Frames;
+import demo.common.BufferPool;
+import demo.common.Demo;
+import demo.common.IdleTimeouts;
+import demo.common.Metrics;
+import demo.common.Processing;
+import demo.common.TimingWheel;
+import demo.journal.Journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+// State of one connection, attached to its selection key: the buffers, the codec, counters and timestamps.
+// It is only used by the thread of its dispatcher and goes back to the dispatcher's pool when the connection is closed;
+// the buffers go back to the buffer pool then, so an idle pooled connection holds no buffer.
+//
+// In framed mode responses are queued and written by the dispatcher at the end of the selector iteration,
+// so all the responses to pipelined requests go out with one gathering write.
+// The queued responses are slices of the decoder buffer, so they are not copied while they are written promptly;
+// when the decoder buffer fills up before they are written, they are copied out to pooled spill buffers,
+// so the decoder can be compacted and read into again. A client that does not read its responses stops being read
+// when more than the high watermark of bytes is queued and is read again when the queue drains below the low watermark.
+//
+// With -Ddemo.processing.offload=true the requests are processed on the executor of Processing instead of the dispatcher thread.
+// The connection watches no events until the processed responses are posted back to its dispatcher, which writes them,
+// so at most one batch of requests per connection is processed at a time and the responses keep the order of the requests.
+class Connection extends Demo {
+
+    private static final int HIGH_WATERMARK = Integer.getInteger("demo.reactor.highWatermark", 256 * 1024);
+    private static final int LOW_WATERMARK = Integer.getInteger("demo.reactor.lowWatermark", 64 * 1024);
+
+    // -Ddemo.reactor.coalesceWrites=false writes every response as soon as it is queued, for comparison;
+    // the decoder is still compacted once per read, after the last response
+    private static final boolean COALESCE_WRITES = Boolean.parseBoolean(System.getProperty("demo.reactor.coalesceWrites", "true"));
+
+    private final Dispatcher dispatcher;
+    private final FrameDecoder decoder;
+    private final FrameEncoder encoder;
+    private final TimingWheel.Timeout<Connection> idleTimeout = new TimingWheel.Timeout<>(this);
+    private final Runnable processTask = this::process;
+    private final Runnable processedTask = this::processed;
+    private final ArrayDeque<Spill> spills = new ArrayDeque<>(); // in the order of the responses they hold
+
+    private SocketChannel channel;
+    private SelectionKey key;
+    private ByteBuffer buffer; // unframed mode: what has been read and is being echoed
+    private int journalId;
+
+    private long queuedBytes;
+    private int unspilledFrames; // the last queued frames, which are still slices of the decoder buffer
+    private boolean flushScheduled;
+    private boolean readSuspended;
+    private boolean processing;
+    private int processFrom; // framed mode: the encoder index of the first payload to process
+
+    private long bytesRead;
+    private long bytesWritten;
+    private long openedAt;
+    private long lastActivityAt;
+
+    Connection(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        this.decoder = Frames.ENABLED ? new FrameDecoder() : null;
+        this.encoder = Frames.ENABLED ? new FrameEncoder() : null;
+    }
+
+    void open(SocketChannel channel, SelectionKey key) {
+        this.channel = channel;
+        this.key = key;
+        if (Frames.ENABLED) {
+            decoder.reset();
+            journalId = Journal.newConnection(); // a pooled connection is a new one in the journal
+        } else {
+            buffer = BufferPool.acquire(1024);
+        }
+
+        bytesRead = 0;
+        bytesWritten = 0;
+        openedAt = System.nanoTime();
+        lastActivityAt = openedAt;
+
+        TimingWheel<Connection> idleTimeouts = dispatcher.getIdleTimeouts();
+        if (idleTimeouts != null) {
+            idleTimeouts.schedule(idleTimeout, openedAt + IdleTimeouts.TIMEOUT_NANOS);
+        }
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    SelectionKey key() {
+        return key;
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    FrameDecoder decoder() {
+        return decoder;
+    }
+
+    // the idle timeout is not rescheduled on every read and write,
+    // only when it expires and there has been activity since it was scheduled
+    void onRead(int read) {
+        if (key instanceof EpollSelectionKey epollKey && (Frames.ENABLED ? decoder.buffer() : buffer).hasRemaining()) {
+            epollKey.clearReadable();
+        }
+        bytesRead += read;
+        Metrics.bytesRead(read);
+        lastActivityAt = System.nanoTime();
+    }
+
+    void onWrite(long written) {
+        // a gathering write stops at IOV_MAX buffers, so only a write of nothing tells that the socket buffer is full
+        if (key instanceof EpollSelectionKey epollKey && (Frames.ENABLED ? written == 0 && !encoder.written() : buffer.hasRemaining())) {
+            epollKey.clearWritable();
+        }
+        if (written > 0) { // a slow reader stops the progress of the writes
+            bytesWritten += written;
+            Metrics.bytesWritten(written);
+            lastActivityAt = System.nanoTime();
+        }
+    }
+
+    void expire() {
+        long now = System.nanoTime();
+        if (now - lastActivityAt < IdleTimeouts.TIMEOUT_NANOS) {
+            dispatcher.getIdleTimeouts().schedule(idleTimeout, lastActivityAt + IdleTimeouts.TIMEOUT_NANOS);
+            return;
+        }
+        if (processing) { // a worker thread still uses the buffers
+            dispatcher.getIdleTimeouts().schedule(idleTimeout, now + IdleTimeouts.TIMEOUT_NANOS);
+            return;
+        }
+
+        logger.debug("Connection idle for {} ms, closing: {}", TimeUnit.NANOSECONDS.toMillis(now - lastActivityAt), channel);
+        try {
+            close();
+        } catch (IOException e) {
+            logger.error("Exception during socket closing", e);
+        }
+    }
+
+    void send(ByteBuffer frame) throws IOException {
+        Journal.append(journalId, lastActivityAt, frame);
+        encoder.add(frame);
+        queuedBytes += Frames.HEADER_LENGTH + frame.remaining();
+        unspilledFrames++;
+        if (!COALESCE_WRITES && !Processing.isOffloaded()) {
+            write();
+            encoder.written();
+        }
+    }
+
+    void flushLater() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            dispatcher.flushLater(this);
+        }
+    }
+
+    // called by the dispatcher thread after the last frames have been sent (framed mode)
+    // or the buffer has been read (unframed mode); the encoder or the buffer belongs to the worker thread until processed()
+    void processLater(int frames) {
+        processing = true;
+        if (Frames.ENABLED) {
+            processFrom = encoder.offset() + encoder.length() - 2 * frames + 1;
+        }
+        key.interestOps(0);
+        Processing.execute(processTask);
+    }
+
+    // called by a worker thread
+    private void process() {
+        if (Frames.ENABLED) {
+            ByteBuffer[] frames = encoder.buffers();
+            for (int i = processFrom; i < encoder.offset() + encoder.length(); i += 2) { // payloads are at odd indexes
+                Processing.process(frames[i]);
+            }
+        } else {
+            Processing.process(buffer);
+        }
+
+        while (!dispatcher.tryExecute(processedTask)) {
+            Thread.yield(); // the dispatcher is behind, so it is better to wait than to drop the responses
+        }
+    }
+
+    // called by the dispatcher thread
+    private void processed() {
+        processing = false;
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        if (Frames.ENABLED) {
+            try {
+                flush();
+            } catch (IOException e) {
+                try {
+                    close();
+                } catch (IOException ignored) {
+                }
+            }
+        } else {
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+    }
+
+    // called by the dispatcher thread at the end of the selector iteration and when the channel is writable
+    void flush() throws IOException {
+        flushScheduled = false;
+        if (channel == null || !channel.isOpen() || processing) {
+            return;
+        }
+
+        if (!encoder.isEmpty()) {
+            write();
+        }
+        releaseWrittenSpills();
+        if (encoder.written()) {
+            decoder.compact(); // the written frames were slices of the decoder buffer
+            unspilledFrames = 0;
+        } else if (decoder.isFull() && queuedBytes <= (readSuspended ? LOW_WATERMARK : HIGH_WATERMARK)) {
+            spill();
+        }
+
+        if (readSuspended) {
+            readSuspended = queuedBytes > LOW_WATERMARK || decoder.isFull();
+        } else {
+            readSuspended = queuedBytes > HIGH_WATERMARK || decoder.isFull();
+        }
+
+        int interestOps = (readSuspended ? 0 : SelectionKey.OP_READ) | (encoder.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+        if (key.interestOps() != interestOps) {
+            key.interestOps(interestOps);
+        }
+    }
+
+    private void write() throws IOException {
+        long written = channel.write(encoder.buffers(), encoder.offset(), encoder.length()); // can be non-blocking
+        queuedBytes -= written;
+        onWrite(written);
+    }
+
+    // moves the responses still in the decoder buffer to a spill buffer, so the decoder can be compacted
+    private void spill() {
+        int remaining = encoder.remaining(unspilledFrames);
+        if (remaining > 0) {
+            ByteBuffer buffer = BufferPool.acquire(remaining);
+            ByteBuffer last = encoder.moveTo(unspilledFrames, buffer);
+            spills.addLast(new Spill(buffer, last));
+        }
+        decoder.compact(); // empty frames left in the encoder have nothing to write, so they can stay slices
+        unspilledFrames = 0;
+    }
+
+    // the responses are written in order, so a spill buffer is free once its last response has been written
+    private void releaseWrittenSpills() {
+        while (!spills.isEmpty() && !spills.peekFirst().last.hasRemaining()) {
+            BufferPool.release(spills.pollFirst().buffer);
+        }
+    }
+
+    void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        channel.close();
+        Metrics.connectionClosed();
+        logger.debug("Connection closed after {} ms: {} byte(s) read, {} byte(s) written",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openedAt), bytesRead, bytesWritten);
+
+        TimingWheel<Connection> idleTimeouts = dispatcher.getIdleTimeouts();
+        if (idleTimeouts != null) {
+            idleTimeouts.cancel(idleTimeout);
+        }
+
+        if (Frames.ENABLED) {
+            decoder.release();
+            encoder.clear();
+            while (!spills.isEmpty()) {
+                BufferPool.release(spills.pollFirst().buffer);
+            }
+        } else {
+            BufferPool.release(buffer);
+            buffer = null;
+        }
+        channel = null;
+        key = null;
+        queuedBytes = 0;
+        unspilledFrames = 0;
+        flushScheduled = false;
+        readSuspended = false;
+
+        dispatcher.getConnectionPool().release(this);
+    }
+
+    private static class Spill {
+
+        private final ByteBuffer buffer;
+        private final ByteBuffer last; // the slice of the last response in the buffer
+
+        Spill(ByteBuffer buffer, ByteBuffer last) {
+            this.buffer = buffer;
+            this.last = last;
+        }
+    }
+}
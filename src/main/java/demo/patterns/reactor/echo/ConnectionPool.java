@@ -0,0 +1,29 @@
+package demo.patterns.reactor.echo;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+// Closed connections are kept for reuse by new ones, so their state and codec arrays are not allocated again.
+// Each dispatcher has its own pool, used only by the dispatcher thread, so it needs no synchronization.
+class ConnectionPool {
+
+    private static final int CAPACITY = Integer.getInteger("demo.reactor.connectionPoolSize", 1024);
+
+    private final ArrayDeque<Connection> connections = new ArrayDeque<>();
+
+    Connection acquire(Dispatcher dispatcher, SocketChannel channel, SelectionKey key) {
+        Connection connection = connections.pollFirst();
+        if (connection == null) {
+            connection = new Connection(dispatcher);
+        }
+        connection.open(channel, key);
+        return connection;
+    }
+
+    void release(Connection connection) {
+        if (connections.size() < CAPACITY) {
+            connections.addFirst(connection);
+        }
+    }
+}
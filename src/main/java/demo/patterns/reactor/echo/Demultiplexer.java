@@ -0,0 +1,35 @@
+package demo.patterns.reactor.echo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.util.function.Consumer;
+
+// The synchronous event demultiplexer of a dispatcher:
+// -Ddemo.reactor.transport=selector (default) is the JDK Selector, level-triggered and portable,
+// -Ddemo.reactor.transport=epoll is Linux epoll in edge-triggered mode, called through the Foreign Function & Memory API;
+//   it is a preview API in Java 21, so it needs --enable-preview, and the file descriptors of the channels
+//   need --add-exports java.base/sun.nio.ch=ALL-UNNAMED.
+// Only the thread of the dispatcher registers channels, selects and changes interest sets; any thread may wake it up.
+interface Demultiplexer extends Closeable {
+
+    static Demultiplexer open() throws IOException {
+        String transport = System.getProperty("demo.reactor.transport", "selector");
+        switch (transport) {
+            case "selector":
+                return new SelectorDemultiplexer();
+            case "epoll":
+                return new EpollDemultiplexer();
+            default:
+                throw new IllegalArgumentException("Unknown reactor transport: " + transport);
+        }
+    }
+
+    SelectionKey register(SelectableChannel channel, int ops, Object attachment) throws IOException;
+
+    // like Selector.select(Consumer, long): the action gets every ready key, a timeout of 0 waits indefinitely
+    int select(Consumer<SelectionKey> action, long timeoutMillis) throws IOException;
+
+    void wakeup();
+}
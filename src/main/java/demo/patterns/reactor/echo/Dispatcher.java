@@ -1,62 +1,224 @@
 package demo.patterns.reactor.echo;
 
+import demo.common.Demo;
+import demo.common.IdleTimeouts;
+import demo.common.Metrics;
+import demo.common.TimingWheel;
+
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Other threads act on the channels and connections of a dispatcher only through execute(): its thread runs
+// the submitted tasks at the start of every loop iteration, before it selects. A submission wakes the selector up
+// only if no wakeup is pending since the selector last returned, so a burst of submissions costs one wakeup.
+// -Ddemo.reactor.taskQueueCapacity bounds the tasks waiting to run (65536 by default).
+// An I/O exception of a handler closes the connection of its key only; fail() stops the loop from any thread.
+public class Dispatcher extends Demo {
 
-public class Dispatcher {
+    private static final AtomicInteger count = new AtomicInteger();
+    private static final int TASK_QUEUE_CAPACITY = Integer.getInteger("demo.reactor.taskQueueCapacity", 64 * 1024);
 
-    private final Map<Integer, EventHandler> registeredHandlers = new ConcurrentHashMap<>();
-    private final Selector demultiplexer;
+    // the handlers to run for every possible ready set, in the order accept, read, write;
+    // the event handlers are registered before run(), so the dispatch is one array load per key
+    private final EventHandler[] registeredHandlers = new EventHandler[SelectionKey.OP_ACCEPT + 1];
+    private final EventHandler[][] handlersByReadyOps = new EventHandler[SelectionKey.OP_ACCEPT << 1][0];
+    private final TaskQueue tasks = new TaskQueue(TASK_QUEUE_CAPACITY);
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final List<Connection> pendingFlushes = new ArrayList<>();
+    private final ConnectionPool connectionPool = new ConnectionPool();
+    private final TimingWheel<Connection> idleTimeouts = IdleTimeouts.isEnabled() ? IdleTimeouts.newWheel(System.nanoTime()) : null;
+    private final Demultiplexer demultiplexer;
+    private final Consumer<SelectionKey> dispatch = this::dispatch;
+
+    private volatile Thread thread;
+    private volatile Throwable failure;
 
     public Dispatcher() throws IOException {
-        demultiplexer = Selector.open();
+        demultiplexer = Demultiplexer.open();
+        Metrics.queue("reactor-" + count.getAndIncrement() + ".tasks", tasks::size);
     }
 
-    public Selector getDemultiplexer() {
-        return demultiplexer;
+    public void registerEventHandler(int eventType, EventHandler eventHandler) {
+        registeredHandlers[eventType] = eventHandler;
+
+        for (int readyOps = 0; readyOps < handlersByReadyOps.length; readyOps++) {
+            List<EventHandler> handlers = new ArrayList<>();
+            for (int op : new int[]{SelectionKey.OP_ACCEPT, SelectionKey.OP_READ, SelectionKey.OP_WRITE}) {
+                if ((readyOps & op) != 0 && registeredHandlers[op] != null) {
+                    handlers.add(registeredHandlers[op]);
+                }
+            }
+            handlersByReadyOps[readyOps] = handlers.toArray(new EventHandler[0]);
+        }
     }
 
-    public void registerEventHandler(int eventType, EventHandler eventHandler) {
-        registeredHandlers.put(eventType, eventHandler);
+    // can be called from any thread; throws RejectedExecutionException when the task queue is full
+    public void execute(Runnable task) {
+        if (!tryExecute(task)) {
+            throw new RejectedExecutionException("Task queue of the dispatcher is full");
+        }
+    }
+
+    // returns false when the task queue is full, for threads that would rather wait than fail
+    public boolean tryExecute(Runnable task) {
+        if (!tasks.offer(task)) {
+            return false;
+        }
+        if (Thread.currentThread() != thread && !wakeupPending.get() && !wakeupPending.getAndSet(true)) {
+            demultiplexer.wakeup();
+        }
+        return true;
+    }
+
+    // can be called from any thread: run() throws an IOException with the cause after its current iteration
+    public void fail(Throwable cause) {
+        failure = cause;
+        demultiplexer.wakeup();
     }
 
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    // can be called from any thread: a foreign thread must not call register() while the selector thread is inside select()
     public void registerChannel(int eventType, SelectableChannel channel) throws IOException {
-        channel.register(demultiplexer, eventType);
+        registerChannel(eventType, channel, null);
+    }
+
+    public void registerChannel(int eventType, SelectableChannel channel, Object attachment) throws IOException {
+        if (inEventLoop()) {
+            demultiplexer.register(channel, eventType, attachment);
+        } else {
+            execute(() -> register(channel, eventType, attachment));
+        }
+    }
+
+    // the connection state is taken from the pool on the dispatcher thread, so the pool needs no synchronization
+    public void registerConnection(SocketChannel channel) {
+        execute(() -> {
+            SelectionKey key = register(channel, SelectionKey.OP_READ, null);
+            if (key != null) {
+                key.attach(connectionPool.acquire(this, channel, key));
+            }
+        });
+    }
+
+    ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    // null when idle connections are never closed
+    TimingWheel<Connection> getIdleTimeouts() {
+        return idleTimeouts;
+    }
+
+    // called on the dispatcher thread by the handlers
+    void flushLater(Connection connection) {
+        pendingFlushes.add(connection);
     }
 
     public void run() throws IOException {
+        thread = Thread.currentThread();
+
         while (true) {
-            demultiplexer.select();
+            runTasks();
 
-            Set<SelectionKey> readyHandles = demultiplexer.selectedKeys();
-            Iterator<SelectionKey> handleIterator = readyHandles.iterator();
+            long timeoutMillis = idleTimeouts == null || idleTimeouts.isEmpty()
+                    ? 0 // indefinitely
+                    : TimeUnit.NANOSECONDS.toMillis(idleTimeouts.nanosUntilNextTick(System.nanoTime())) + 1;
+            try {
+                int selected = demultiplexer.select(dispatch, timeoutMillis); // blocking
+                Metrics.selected(selected);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            wakeupPending.set(false); // the tasks submitted from now on are run after the next select at the latest, so they wake it up
+            if (failure != null) {
+                throw new IOException("Dispatcher stopped", failure);
+            }
 
-            while (handleIterator.hasNext()) {
-                SelectionKey handle = handleIterator.next();
+            flushPendingConnections();
 
-                if (handle.isAcceptable()) {
-                    EventHandler handler = registeredHandlers.get(SelectionKey.OP_ACCEPT);
-                    handler.handleEvent(handle);
-                }
+            if (idleTimeouts != null) {
+                idleTimeouts.expire(System.nanoTime(), Connection::expire);
+            }
+        }
+    }
 
-                if (handle.isReadable()) {
-                    EventHandler handler = registeredHandlers.get(SelectionKey.OP_READ);
-                    handler.handleEvent(handle);
-                    handleIterator.remove();
+    private void dispatch(SelectionKey handle) {
+        long start = Metrics.handlerStarted();
+        try {
+            for (EventHandler handler : handlersByReadyOps[handle.readyOps()]) {
+                if (!handle.isValid()) { // closed by the previous handler
+                    break;
                 }
+                handler.handleEvent(handle);
+            }
+        } catch (IOException e) { // a peer reset is routine: only the connection of this key is closed
+            close(handle, e);
+        }
+        Metrics.handlerFinished(start);
+    }
+
+    private static void close(SelectionKey handle, IOException cause) {
+        try {
+            if (handle.attachment() instanceof Connection connection) {
+                logger.debug("Connection failed, closing: {}", cause.toString());
+                connection.close();
+            } else { // the server channel stays open, the next accept may succeed
+                logger.error("Exception during event handling", cause);
+            }
+        } catch (IOException e) {
+            logger.error("Exception during socket closing", e);
+        }
+    }
 
-                if (handle.isWritable()) {
-                    EventHandler handler = registeredHandlers.get(SelectionKey.OP_WRITE);
-                    handler.handleEvent(handle);
-                    handleIterator.remove();
+    // writes the responses produced in this iteration, one gathering write per connection
+    private void flushPendingConnections() {
+        for (int i = 0; i < pendingFlushes.size(); i++) {
+            Connection connection = pendingFlushes.get(i);
+            try {
+                connection.flush();
+            } catch (IOException e) {
+                try {
+                    connection.close();
+                } catch (IOException ignored) {
                 }
             }
         }
+        pendingFlushes.clear();
+    }
+
+    // at most the tasks submitted before it started, so a stream of submissions cannot starve the channels
+    private void runTasks() throws IOException {
+        try {
+            for (int i = tasks.size(); i > 0; i--) {
+                tasks.poll().run();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // null if the channel was closed before the dispatcher got to it
+    private SelectionKey register(SelectableChannel channel, int eventType, Object attachment) {
+        try {
+            return demultiplexer.register(channel, eventType, attachment);
+        } catch (ClosedChannelException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
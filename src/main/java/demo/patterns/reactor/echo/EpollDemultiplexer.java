@@ -0,0 +1,248 @@
+package demo.patterns.reactor.echo;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_INT_UNALIGNED;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_LONG_UNALIGNED;
+
+// Linux epoll in edge-triggered mode, see EpollSelectionKey.
+// Unlike the JDK Selector, it allocates nothing per select: the events are read from one native array,
+// the keys are found by file descriptor in an array, and the ready keys go through two reused lists.
+// The wakeup is an eventfd registered with the epoll instance.
+class EpollDemultiplexer implements Demultiplexer {
+
+    private static final int EPOLLIN = 0x001;
+    private static final int EPOLLOUT = 0x004;
+    private static final int EPOLLERR = 0x008;
+    private static final int EPOLLHUP = 0x010;
+    private static final int EPOLLRDHUP = 0x2000;
+    private static final int EPOLLET = 1 << 31;
+    private static final int EPOLL_CTL_ADD = 1;
+    private static final int EPOLL_CTL_DEL = 2;
+    private static final int EPOLL_CTL_MOD = 3;
+    private static final int EPOLL_CLOEXEC = 0x80000;
+    private static final int EFD_NONBLOCK = 0x800;
+    private static final int EFD_CLOEXEC = 0x80000;
+    private static final int EINTR = 4;
+
+    // struct epoll_event is packed on x86-64 only
+    private static final boolean PACKED = System.getProperty("os.arch").matches("amd64|x86_64");
+    private static final long EVENT_SIZE = PACKED ? 12 : 16;
+    private static final long DATA_OFFSET = PACKED ? 4 : 8;
+
+    private static final int MAX_EVENTS = 1024;
+
+    private static final Linker linker = Linker.nativeLinker();
+    private static final MethodHandle epollCreate1 = downcall("epoll_create1", FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+    private static final MethodHandle epollCtl = downcall("epoll_ctl", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS));
+    private static final MethodHandle epollWait = downcall("epoll_wait", FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT),
+            Linker.Option.captureCallState("errno")); // takes the segment to capture errno into first
+    private static final long ERRNO_OFFSET = Linker.Option.captureStateLayout().byteOffset(MemoryLayout.PathElement.groupElement("errno"));
+    private static final MethodHandle eventfd = downcall("eventfd", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT));
+    private static final MethodHandle read = downcall("read", FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG));
+    private static final MethodHandle write = downcall("write", FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG));
+    private static final MethodHandle close = downcall("close", FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+    private static final MethodHandle fdVal = fdVal();
+
+    // the value written to the eventfd, read-only so that any thread can use it
+    private static final MemorySegment one = Arena.global().allocate(JAVA_LONG, 1L);
+
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment events = arena.allocate(EVENT_SIZE * MAX_EVENTS, 8);
+    private final MemorySegment event = arena.allocate(EVENT_SIZE, 8);
+    private final MemorySegment eventfdValue = arena.allocate(JAVA_LONG);
+    private final MemorySegment callState = arena.allocate(Linker.Option.captureStateLayout()); // used by select() only
+    private final int epfd;
+    private final int wakeupFd;
+
+    private EpollSelectionKey[] keys = new EpollSelectionKey[1024];
+    private List<EpollSelectionKey> ready = new ArrayList<>();
+    private List<EpollSelectionKey> dispatching = new ArrayList<>();
+
+    EpollDemultiplexer() throws IOException {
+        epfd = check((int) invoke(() -> (int) epollCreate1.invokeExact(EPOLL_CLOEXEC)), "epoll_create1");
+        wakeupFd = check((int) invoke(() -> (int) eventfd.invokeExact(0, EFD_NONBLOCK | EFD_CLOEXEC)), "eventfd");
+        control(EPOLL_CTL_ADD, wakeupFd, EPOLLIN | EPOLLET);
+    }
+
+    @Override
+    public SelectionKey register(SelectableChannel channel, int ops, Object attachment) throws IOException {
+        if (channel.isBlocking()) {
+            throw new IllegalBlockingModeException();
+        }
+        int fd = (int) invoke(() -> (int) fdVal.invoke(channel));
+
+        EpollSelectionKey key = new EpollSelectionKey(this, channel, fd, ops);
+        key.attach(attachment);
+        if (fd >= keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(fd + 1, keys.length * 2));
+        }
+        EpollSelectionKey previous = keys[fd];
+        keys[fd] = key;
+
+        // a closed descriptor leaves the epoll set by itself, but a stale key may still hold its number
+        int events = EPOLLIN | EPOLLOUT | EPOLLRDHUP | EPOLLET;
+        if (previous != null && previous.channel().isOpen()) {
+            control(EPOLL_CTL_MOD, fd, events);
+        } else {
+            control(EPOLL_CTL_ADD, fd, events);
+        }
+        return key;
+    }
+
+    void deregister(EpollSelectionKey key) {
+        if (keys[key.fd()] == key) {
+            keys[key.fd()] = null;
+            if (key.channel().isOpen()) {
+                try {
+                    control(EPOLL_CTL_DEL, key.fd(), 0);
+                } catch (IOException e) {
+                    // the descriptor is being closed
+                }
+            }
+        }
+    }
+
+    // dispatched in the next select() without waiting for an event
+    void enqueue(EpollSelectionKey key) {
+        if (!key.isQueued()) {
+            key.setQueued(true);
+            ready.add(key);
+        }
+    }
+
+    @Override
+    public int select(Consumer<SelectionKey> action, long timeoutMillis) throws IOException {
+        int timeout = !ready.isEmpty() ? 0 : timeoutMillis == 0 ? -1 : (int) Math.min(timeoutMillis, Integer.MAX_VALUE);
+        int count;
+        while ((count = waitForEvents(timeout)) < 0) { // blocking
+            int errno = callState.get(JAVA_INT, ERRNO_OFFSET);
+            if (errno != EINTR) { // EBADF or EINVAL after the epoll instance has been closed, for example
+                throw new IOException("epoll_wait failed: errno " + errno);
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            long offset = i * EVENT_SIZE;
+            int flags = events.get(JAVA_INT_UNALIGNED, offset);
+            int fd = (int) events.get(JAVA_LONG_UNALIGNED, offset + DATA_OFFSET);
+            if (fd == wakeupFd) {
+                invoke(() -> (long) read.invokeExact(wakeupFd, eventfdValue, 8L)); // non-blocking
+                continue;
+            }
+
+            EpollSelectionKey key = fd < keys.length ? keys[fd] : null;
+            if (key == null || !key.isValid()) {
+                continue;
+            }
+            key.onEvents((flags & (EPOLLIN | EPOLLRDHUP | EPOLLHUP | EPOLLERR)) != 0, (flags & (EPOLLOUT | EPOLLHUP | EPOLLERR)) != 0);
+            if (key.readyOps() != 0) {
+                enqueue(key);
+            }
+        }
+
+        // the keys that the action leaves ready go to the next round, after the other ready keys have had their turn
+        List<EpollSelectionKey> keys = ready;
+        ready = dispatching;
+        dispatching = keys;
+
+        int dispatched = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            EpollSelectionKey key = keys.get(i);
+            key.setQueued(false);
+            if (key.isValid() && key.readyOps() != 0) {
+                action.accept(key);
+                dispatched++;
+                if (key.isValid() && key.readyOps() != 0) {
+                    enqueue(key);
+                }
+            }
+        }
+        keys.clear();
+        return dispatched;
+    }
+
+    // not through invoke(), whose lambda would be allocated by every select
+    private int waitForEvents(int timeout) {
+        try {
+            return (int) epollWait.invokeExact(callState, epfd, events, MAX_EVENTS, timeout);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void wakeup() {
+        try {
+            long written = (long) write.invokeExact(wakeupFd, one, 8L); // non-blocking
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        invoke(() -> (int) close.invokeExact(wakeupFd));
+        invoke(() -> (int) close.invokeExact(epfd));
+        arena.close();
+    }
+
+    private void control(int op, int fd, int flags) throws IOException {
+        event.set(JAVA_INT_UNALIGNED, 0, flags);
+        event.set(JAVA_LONG_UNALIGNED, DATA_OFFSET, fd);
+        MemorySegment eventOrNull = flags == 0 ? MemorySegment.NULL : event;
+        check((int) invoke(() -> (int) epollCtl.invokeExact(epfd, op, fd, eventOrNull)), "epoll_ctl");
+    }
+
+    private static int check(int result, String function) throws IOException {
+        if (result < 0) {
+            throw new IOException(function + " failed");
+        }
+        return result;
+    }
+
+    private static MethodHandle downcall(String name, FunctionDescriptor descriptor, Linker.Option... options) {
+        return linker.downcallHandle(linker.defaultLookup().find(name).orElseThrow(), descriptor, options);
+    }
+
+    // SelChImpl.getFDVal() of the JDK channel implementations
+    private static MethodHandle fdVal() {
+        try {
+            Class<?> selChImpl = Class.forName("sun.nio.ch.SelChImpl");
+            return MethodHandles.lookup().findVirtual(selChImpl, "getFDVal", MethodType.methodType(int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The epoll transport needs --add-exports java.base/sun.nio.ch=ALL-UNNAMED", e);
+        }
+    }
+
+    private static Object invoke(NativeCall call) {
+        try {
+            return call.invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private interface NativeCall {
+
+        Object invoke() throws Throwable;
+    }
+}
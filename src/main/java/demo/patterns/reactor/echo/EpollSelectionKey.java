@@ -0,0 +1,100 @@
+package demo.patterns.reactor.echo;
+
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+// The key of a channel registered with EpollDemultiplexer. The channel is registered once for both input and output
+// in edge-triggered mode, so changing the interest set is no system call. An edge only tells that the channel
+// has become readable or writable; the key remembers it until a read or write comes up short (clearReadable(),
+// clearWritable()), and the demultiplexer dispatches the key again as long as it is ready for an operation of interest.
+// There is no Selector behind the key: selector() returns null.
+class EpollSelectionKey extends SelectionKey {
+
+    private final EpollDemultiplexer demultiplexer;
+    private final SelectableChannel channel;
+    private final int fd;
+
+    private int interestOps;
+    private boolean readable;
+    private boolean writable;
+    private boolean queued;
+    private boolean cancelled;
+
+    EpollSelectionKey(EpollDemultiplexer demultiplexer, SelectableChannel channel, int fd, int interestOps) {
+        this.demultiplexer = demultiplexer;
+        this.channel = channel;
+        this.fd = fd;
+        this.interestOps = interestOps;
+    }
+
+    int fd() {
+        return fd;
+    }
+
+    @Override
+    public SelectableChannel channel() {
+        return channel;
+    }
+
+    @Override
+    public Selector selector() {
+        return null;
+    }
+
+    @Override
+    public boolean isValid() {
+        return !cancelled && channel.isOpen();
+    }
+
+    @Override
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            demultiplexer.deregister(this);
+        }
+    }
+
+    @Override
+    public int interestOps() {
+        return interestOps;
+    }
+
+    @Override
+    public SelectionKey interestOps(int ops) {
+        interestOps = ops;
+        if (readyOps() != 0) { // no new edge is coming for what is already pending
+            demultiplexer.enqueue(this);
+        }
+        return this;
+    }
+
+    @Override
+    public int readyOps() {
+        int readOp = (channel.validOps() & OP_ACCEPT) != 0 ? OP_ACCEPT : OP_READ;
+        return interestOps & ((readable ? readOp : 0) | (writable ? OP_WRITE : 0));
+    }
+
+    void onEvents(boolean readable, boolean writable) {
+        this.readable |= readable;
+        this.writable |= writable;
+    }
+
+    // a read that did not fill the buffer has drained the socket: the next data arrival is a new edge
+    void clearReadable() {
+        readable = false;
+    }
+
+    // a write that did not write everything has filled the socket buffer: freeing space in it is a new edge
+    void clearWritable() {
+        writable = false;
+    }
+
+    boolean isQueued() {
+        return queued;
+    }
+
+    void setQueued(boolean queued) {
+        this.queued = queued;
+    }
+}
@@ -0,0 +1,49 @@
+package demo.patterns.reactor.echo;
+
+import demo.codec.FrameDecoder;
+import demo.common.Processing;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+public class FramedReadEventHandler implements EventHandler {
+
+    @Override
+    public void handleEvent(SelectionKey handle) throws IOException {
+        SocketChannel socketChannel = (SocketChannel) handle.channel();
+
+        Connection connection = (Connection) handle.attachment();
+        FrameDecoder decoder = connection.decoder();
+
+        int read = decoder.read(socketChannel);
+        if (read < 0) {
+            connection.close();
+            return;
+        }
+        connection.onRead(read);
+
+        int frames = 0;
+        try {
+            ByteBuffer frame;
+            while ((frame = decoder.nextFrame()) != null) { // all the requests that have arrived with this read
+                if (!Processing.isOffloaded()) {
+                    Processing.process(frame);
+                }
+                connection.send(frame);
+                frames++;
+            }
+        } catch (ProtocolException e) {
+            connection.close();
+            return;
+        }
+
+        if (Processing.isOffloaded() && frames > 0) {
+            connection.processLater(frames);
+        } else {
+            connection.flushLater();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package demo.patterns.reactor.echo;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+
+public class FramedWriteEventHandler implements EventHandler {
+
+    @Override
+    public void handleEvent(SelectionKey handle) throws IOException {
+        Connection connection = (Connection) handle.attachment();
+        connection.flush();
+    }
+}
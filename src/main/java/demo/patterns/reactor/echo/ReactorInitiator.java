@@ -1,14 +1,18 @@
 package demo.patterns.reactor.echo;
 
+import demo.codec.Frames;
+import demo.common.Demo;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 
-public class ReactorInitiator {
+public class ReactorInitiator extends Demo {
 
     public static void main(String[] args) throws IOException {
-        new ReactorInitiator().initiateReactiveServer(7000);
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        new ReactorInitiator().initiateReactiveServer(7000, workers);
     }
 
     public void initiateReactiveServer(int port) throws IOException {
@@ -18,10 +22,52 @@ public class ReactorInitiator {
 
         Dispatcher dispatcher = new Dispatcher();
         dispatcher.registerChannel(SelectionKey.OP_ACCEPT, server);
-        dispatcher.registerEventHandler(SelectionKey.OP_ACCEPT, new AcceptEventHandler(dispatcher.getDemultiplexer()));
-        dispatcher.registerEventHandler(SelectionKey.OP_READ, new ReadEventHandler(dispatcher.getDemultiplexer()));
-        dispatcher.registerEventHandler(SelectionKey.OP_WRITE, new WriteEventHandler());
+        dispatcher.registerEventHandler(SelectionKey.OP_ACCEPT, new AcceptEventHandler(dispatcher));
+        registerEchoHandlers(dispatcher);
 
         dispatcher.run();
     }
+
+    // main reactor accepts connections and hands them round-robin to the sub-reactors
+    public void initiateReactiveServer(int port, int workers) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+
+        Dispatcher dispatcher = new Dispatcher();
+        Dispatcher[] workerDispatchers = new Dispatcher[workers];
+        for (int i = 0; i < workers; i++) {
+            Dispatcher workerDispatcher = new Dispatcher();
+            registerEchoHandlers(workerDispatcher);
+            workerDispatchers[i] = workerDispatcher;
+
+            // a worker loop that dies would leave its connections hanging, so it stops the main reactor and with it the server
+            Thread thread = new Thread(() -> {
+                try {
+                    workerDispatcher.run();
+                } catch (IOException | RuntimeException | Error e) {
+                    logger.error("Worker dispatcher failed, stopping the server", e);
+                    dispatcher.fail(e);
+                }
+            }, "reactor-worker-" + i);
+            thread.setDaemon(true); // the JVM exits when the main reactor does
+            thread.start();
+        }
+
+        dispatcher.registerChannel(SelectionKey.OP_ACCEPT, server);
+        dispatcher.registerEventHandler(SelectionKey.OP_ACCEPT, new AcceptEventHandler(workerDispatchers));
+
+        dispatcher.run();
+    }
+
+    // -Ddemo.codec.framing=true echoes length-prefixed frames instead of whatever one read returns, -Ddemo.journal=true journals them
+    private static void registerEchoHandlers(Dispatcher dispatcher) {
+        if (Frames.ENABLED) {
+            dispatcher.registerEventHandler(SelectionKey.OP_READ, new FramedReadEventHandler());
+            dispatcher.registerEventHandler(SelectionKey.OP_WRITE, new FramedWriteEventHandler());
+        } else {
+            dispatcher.registerEventHandler(SelectionKey.OP_READ, new ReadEventHandler());
+            dispatcher.registerEventHandler(SelectionKey.OP_WRITE, new WriteEventHandler());
+        }
+    }
 }
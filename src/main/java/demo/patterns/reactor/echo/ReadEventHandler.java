@@ -1,32 +1,33 @@
 package demo.patterns.reactor.echo;
 
+import demo.common.Processing;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
 
 public class ReadEventHandler implements EventHandler {
 
-    private final Selector demultiplexer;
-    private final ByteBuffer buffer = ByteBuffer.allocate(1024);
-
-    public ReadEventHandler(Selector demultiplexer) {
-        this.demultiplexer = demultiplexer;
-    }
-
     @Override
     public void handleEvent(SelectionKey handle) throws IOException {
         SocketChannel socketChannel = (SocketChannel) handle.channel();
-        socketChannel.read(buffer);
 
-        buffer.flip();
-        byte[] bytes = new byte[buffer.limit()];
-        buffer.get(bytes);
-        System.out.println("Received message from client: " + new String(bytes, StandardCharsets.UTF_8));
+        Connection connection = (Connection) handle.attachment();
+        ByteBuffer buffer = connection.buffer();
+        int read = socketChannel.read(buffer);
+        if (read < 0) {
+            connection.close();
+            return;
+        }
+        connection.onRead(read);
 
         buffer.flip();
-        socketChannel.register(demultiplexer, SelectionKey.OP_WRITE, buffer);
+        if (Processing.isOffloaded()) {
+            connection.processLater(0);
+        } else {
+            Processing.process(buffer);
+            handle.interestOps(SelectionKey.OP_WRITE);
+        }
     }
 }
@@ -0,0 +1,36 @@
+package demo.patterns.reactor.echo;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.function.Consumer;
+
+class SelectorDemultiplexer implements Demultiplexer {
+
+    private final Selector selector;
+
+    SelectorDemultiplexer() throws IOException {
+        selector = Selector.open();
+    }
+
+    @Override
+    public SelectionKey register(SelectableChannel channel, int ops, Object attachment) throws IOException {
+        return channel.register(selector, ops, attachment);
+    }
+
+    @Override
+    public int select(Consumer<SelectionKey> action, long timeoutMillis) throws IOException {
+        return selector.select(action, timeoutMillis);
+    }
+
+    @Override
+    public void wakeup() {
+        selector.wakeup();
+    }
+
+    @Override
+    public void close() throws IOException {
+        selector.close();
+    }
+}
@@ -0,0 +1,60 @@
+package demo.patterns.reactor.echo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// A bounded lock-free queue of the tasks that any thread may submit to a dispatcher and only its thread runs,
+// after the multi-producer single-consumer array queue of JCTools: a producer claims a slot with a CAS
+// on the producer index and then stores its task into the slot with release semantics; the consumer takes the tasks
+// in the order of their claims, and waits for a claimed slot that is still empty, whose producer is between
+// the CAS and the store. A producer never waits: offer() fails when the queue is full.
+class TaskQueue {
+
+    private final AtomicReferenceArray<Runnable> tasks;
+    private final int mask;
+
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong(); // written by the consumer only
+
+    TaskQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1; // a power of two
+        this.tasks = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    boolean offer(Runnable task) {
+        long index;
+        do {
+            index = producerIndex.get();
+            if (index - consumerIndex.get() > mask) {
+                return false;
+            }
+        } while (!producerIndex.compareAndSet(index, index + 1));
+
+        tasks.lazySet((int) index & mask, task);
+        return true;
+    }
+
+    // called by the consumer only
+    Runnable poll() {
+        long index = consumerIndex.get();
+        int slot = (int) index & mask;
+        Runnable task = tasks.get(slot);
+        if (task == null) {
+            if (index == producerIndex.get()) {
+                return null;
+            }
+            while ((task = tasks.get(slot)) == null) {
+                Thread.onSpinWait();
+            }
+        }
+
+        tasks.lazySet(slot, null);
+        consumerIndex.lazySet(index + 1);
+        return task;
+    }
+
+    int size() {
+        return (int) Math.max(0, producerIndex.get() - consumerIndex.get());
+    }
+}
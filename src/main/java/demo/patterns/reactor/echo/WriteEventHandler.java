@@ -11,8 +11,13 @@ public class WriteEventHandler implements EventHandler {
     public void handleEvent(SelectionKey handle) throws IOException {
         SocketChannel socketChannel = (SocketChannel) handle.channel();
 
-        ByteBuffer buffer = (ByteBuffer) handle.attachment();
-        socketChannel.write(buffer);
-        socketChannel.close();
+        Connection connection = (Connection) handle.attachment();
+        ByteBuffer buffer = connection.buffer();
+        connection.onWrite(socketChannel.write(buffer));
+
+        if (!buffer.hasRemaining()) { // otherwise the remainder is written on the next OP_WRITE
+            buffer.clear();
+            handle.interestOps(SelectionKey.OP_READ);
+        }
     }
 }
@@ -0,0 +1,110 @@
+package demo.tls;
+
+import demo.common.Demo;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+// -Ddemo.tls=true runs the proactor over TLS (the selector loop has its own server, NioSelectorTlsEchoServer).
+// The key and its self-signed certificate for localhost are read from the PKCS12 key store -Ddemo.tls.keyStore
+// with the password -Ddemo.tls.keyStorePassword; without it, a key store is generated with keytool
+// into the temporary directory once and reused by every process. The same key store is the trust store of the clients.
+//
+// One context serves both sides, so it also keeps both session caches: a client engine created for a host and port
+// offers the session ticket it got from that server, and the resumed handshake skips the certificate exchange.
+public class Tls extends Demo {
+
+    public static final boolean ENABLED = Boolean.getBoolean("demo.tls");
+
+    private static final String KEY_STORE = System.getProperty("demo.tls.keyStore");
+    private static final String KEY_STORE_PASSWORD = System.getProperty("demo.tls.keyStorePassword", "changeit");
+
+    private static SSLContext context;
+
+    public static synchronized SSLContext context() {
+        if (context == null) {
+            try {
+                context = newContext(KEY_STORE != null ? Paths.get(KEY_STORE) : generatedKeyStore());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Cannot initialize TLS", e);
+            }
+        }
+        return context;
+    }
+
+    public static SSLEngine serverEngine() {
+        SSLEngine engine = context().createSSLEngine();
+        engine.setUseClientMode(false);
+        return engine;
+    }
+
+    // the host and port are the key of the client session cache: null disables session resumption
+    public static SSLEngine clientEngine(String host, int port) {
+        SSLEngine engine = host != null ? context().createSSLEngine(host, port) : context().createSSLEngine();
+        engine.setUseClientMode(true);
+        return engine;
+    }
+
+    private static SSLContext newContext(Path keyStorePath) throws IOException, GeneralSecurityException {
+        char[] password = KEY_STORE_PASSWORD.toCharArray();
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(keyStorePath)) {
+            keyStore.load(in, password);
+        }
+
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, password);
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
+        logger.info("TLS initialized with key store {}", keyStorePath);
+        return context;
+    }
+
+    // generated into a temporary file and then moved, so concurrent processes never read a half-written key store
+    private static Path generatedKeyStore() throws IOException {
+        Path keyStorePath = Paths.get(System.getProperty("java.io.tmpdir"), "demo-tls.p12");
+        if (Files.exists(keyStorePath)) {
+            return keyStorePath;
+        }
+
+        Path temporary = Files.createTempFile(keyStorePath.getParent(), "demo-tls", ".p12");
+        Files.delete(temporary); // keytool refuses to write into an existing empty file
+        Process keytool = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "demo", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "3650",
+                "-storetype", "PKCS12", "-keystore", temporary.toString(),
+                "-storepass", KEY_STORE_PASSWORD, "-keypass", KEY_STORE_PASSWORD)
+                .inheritIO()
+                .start();
+        try {
+            if (keytool.waitFor() != 0) {
+                throw new IOException("keytool failed with exit code " + keytool.exitValue());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating the key store", e);
+        }
+
+        Files.move(temporary, keyStorePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        logger.info("TLS key store generated: {}", keyStorePath);
+        return keyStorePath;
+    }
+}
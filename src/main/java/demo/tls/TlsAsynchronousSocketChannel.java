@@ -0,0 +1,464 @@
+package demo.tls;
+
+import demo.common.BufferPool;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// A TLS connection over an asynchronous socket channel that is itself an asynchronous socket channel,
+// so the completion handlers of the proactor use it unchanged. A read completes when plaintext is available,
+// a write when all of it has been encrypted and written; either of them first runs as much of the handshake
+// as it needs, with reads and writes of the underlying channel whose completions continue the operation.
+// The buffers are the same as those of TlsChannel.
+//
+// The underlying reads and writes of the handshake are shared by both directions, so a read and a write
+// must not be outstanding at the same time, which is how the sessions of the proactor use their channels.
+// close() may be called from any thread: the buffers are released when the operation in progress has completed.
+public class TlsAsynchronousSocketChannel extends AsynchronousSocketChannel {
+
+    private static final ByteBuffer[] EMPTY = {ByteBuffer.allocate(0)};
+
+    private final AsynchronousSocketChannel channel;
+    private final SSLEngine engine;
+
+    private final ByteBuffer netIn; // in write mode: ciphertext read from the channel and not yet decrypted
+    private final ByteBuffer netOut; // in read mode: ciphertext not yet written to the channel
+    private final ByteBuffer appIn; // in read mode: plaintext not yet returned by a read
+
+    private final Operation reading = new Reading();
+    private final Operation writing = new Writing();
+
+    private boolean operating; // guarded by this
+    private boolean closed; // guarded by this
+
+    public TlsAsynchronousSocketChannel(AsynchronousSocketChannel channel, SSLEngine engine) {
+        super(channel.provider());
+        this.channel = channel;
+        this.engine = engine;
+
+        int packetBufferSize = engine.getSession().getPacketBufferSize();
+        this.netIn = BufferPool.acquire(packetBufferSize);
+        this.netOut = BufferPool.acquire(packetBufferSize).flip();
+        this.appIn = BufferPool.acquire(engine.getSession().getApplicationBufferSize()).flip();
+    }
+
+    @Override
+    public <A> void read(ByteBuffer dst, long timeout, TimeUnit unit, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        reading.single[0] = dst;
+        reading.start(reading.single, 0, 1, timeout, unit, attachment, handler, null);
+    }
+
+    @Override
+    public Future<Integer> read(ByteBuffer dst) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        read(dst, 0, TimeUnit.MILLISECONDS, future, FutureHandler.instance());
+        return future;
+    }
+
+    @Override
+    public <A> void read(ByteBuffer[] dsts, int offset, int length, long timeout, TimeUnit unit, A attachment, CompletionHandler<Long, ? super A> handler) {
+        reading.start(dsts, offset, length, timeout, unit, attachment, null, handler);
+    }
+
+    @Override
+    public <A> void write(ByteBuffer src, long timeout, TimeUnit unit, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        writing.single[0] = src;
+        writing.start(writing.single, 0, 1, timeout, unit, attachment, handler, null);
+    }
+
+    @Override
+    public Future<Integer> write(ByteBuffer src) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        write(src, 0, TimeUnit.MILLISECONDS, future, FutureHandler.instance());
+        return future;
+    }
+
+    @Override
+    public <A> void write(ByteBuffer[] srcs, int offset, int length, long timeout, TimeUnit unit, A attachment, CompletionHandler<Long, ? super A> handler) {
+        writing.start(srcs, offset, length, timeout, unit, attachment, null, handler);
+    }
+
+    @Override
+    public AsynchronousSocketChannel bind(SocketAddress local) throws IOException {
+        channel.bind(local);
+        return this;
+    }
+
+    @Override
+    public <T> AsynchronousSocketChannel setOption(SocketOption<T> name, T value) throws IOException {
+        channel.setOption(name, value);
+        return this;
+    }
+
+    @Override
+    public <T> T getOption(SocketOption<T> name) throws IOException {
+        return channel.getOption(name);
+    }
+
+    @Override
+    public Set<SocketOption<?>> supportedOptions() {
+        return channel.supportedOptions();
+    }
+
+    @Override
+    public AsynchronousSocketChannel shutdownInput() throws IOException {
+        channel.shutdownInput();
+        return this;
+    }
+
+    @Override
+    public AsynchronousSocketChannel shutdownOutput() throws IOException {
+        engine.closeOutbound();
+        channel.shutdownOutput();
+        return this;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() throws IOException {
+        return channel.getRemoteAddress();
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() throws IOException {
+        return channel.getLocalAddress();
+    }
+
+    // the handshake starts with the first read or write
+    @Override
+    public <A> void connect(SocketAddress remote, A attachment, CompletionHandler<Void, ? super A> handler) {
+        channel.connect(remote, attachment, handler);
+    }
+
+    @Override
+    public Future<Void> connect(SocketAddress remote) {
+        return channel.connect(remote);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    // no close_notify: it would need a write that outlives close(), and the peer has usually gone already
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!operating) { // otherwise when the operation in progress has failed
+                releaseBuffers();
+            }
+        }
+        engine.closeOutbound();
+        channel.close(); // fails the underlying read or write in progress
+    }
+
+    private synchronized boolean startOperation() {
+        if (closed) {
+            return false;
+        }
+        operating = true;
+        return true;
+    }
+
+    private synchronized void finishOperation() {
+        operating = false;
+        if (closed) {
+            releaseBuffers();
+        }
+    }
+
+    private void releaseBuffers() {
+        BufferPool.release(netIn);
+        BufferPool.release(netOut);
+        BufferPool.release(appIn);
+    }
+
+    private SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length) throws SSLException {
+        netOut.compact();
+        SSLEngineResult result = engine.wrap(srcs, offset, length, netOut);
+        netOut.flip();
+        runDelegatedTasks(result);
+        return result;
+    }
+
+    private SSLEngineResult unwrap() throws SSLException {
+        netIn.flip();
+        appIn.clear();
+        SSLEngineResult result = engine.unwrap(netIn, appIn);
+        netIn.compact();
+        appIn.flip();
+        runDelegatedTasks(result);
+        return result;
+    }
+
+    private void runDelegatedTasks(SSLEngineResult result) {
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    // One read or write of plaintext: step() advances it until it is done or has to wait for the channel,
+    // and the completion of the underlying read or write calls step() again.
+    // An operation object is reused by all the operations of its direction.
+    private abstract class Operation implements CompletionHandler<Integer, Boolean> {
+
+        final ByteBuffer[] single = new ByteBuffer[1]; // the buffers of a read or write of one buffer
+        ByteBuffer[] buffers;
+        int offset;
+        int length;
+        long transferred;
+        long timeout;
+        TimeUnit unit;
+        private Object attachment;
+        private CompletionHandler<Integer, Object> intHandler;
+        private CompletionHandler<Long, Object> longHandler;
+
+        @SuppressWarnings("unchecked")
+        <A> void start(ByteBuffer[] buffers, int offset, int length, long timeout, TimeUnit unit, A attachment,
+                       CompletionHandler<Integer, ? super A> intHandler, CompletionHandler<Long, ? super A> longHandler) {
+            this.buffers = buffers;
+            this.offset = offset;
+            this.length = length;
+            this.transferred = 0;
+            this.timeout = timeout;
+            this.unit = unit;
+            this.attachment = attachment;
+            this.intHandler = (CompletionHandler<Integer, Object>) intHandler;
+            this.longHandler = (CompletionHandler<Long, Object>) longHandler;
+
+            if (!startOperation()) {
+                clear();
+                if (intHandler != null) {
+                    intHandler.failed(new ClosedChannelException(), attachment);
+                } else {
+                    longHandler.failed(new ClosedChannelException(), attachment);
+                }
+                return;
+            }
+            run();
+        }
+
+        // returns the result of the operation, or null when it waits for the underlying channel
+        abstract Long step() throws IOException;
+
+        void run() {
+            Long result;
+            try {
+                result = step();
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+                return;
+            }
+            if (result != null) {
+                complete(result);
+            }
+        }
+
+        // true if there was ciphertext to write: the operation continues when it has been written
+        boolean flush() {
+            if (!netOut.hasRemaining()) {
+                return false;
+            }
+            channel.write(netOut, timeout, unit, Boolean.FALSE, this);
+            return true;
+        }
+
+        void fill() {
+            channel.read(netIn, timeout, unit, Boolean.TRUE, this);
+        }
+
+        // the underlying read (attachment TRUE) or write (FALSE) has completed
+        @Override
+        public void completed(Integer bytes, Boolean read) {
+            if (read && bytes < 0) {
+                try {
+                    engine.closeInbound();
+                } catch (SSLException e) {
+                    // the end of the stream without close_notify
+                }
+                complete(-1L);
+                return;
+            }
+            run();
+        }
+
+        @Override
+        public void failed(Throwable e, Boolean read) {
+            fail(e);
+        }
+
+        private void complete(long result) {
+            CompletionHandler<Integer, Object> intHandler = this.intHandler;
+            CompletionHandler<Long, Object> longHandler = this.longHandler;
+            Object attachment = this.attachment;
+            clear();
+            finishOperation();
+            if (intHandler != null) {
+                intHandler.completed((int) result, attachment);
+            } else {
+                longHandler.completed(result, attachment);
+            }
+        }
+
+        private void fail(Throwable e) {
+            CompletionHandler<Integer, Object> intHandler = this.intHandler;
+            CompletionHandler<Long, Object> longHandler = this.longHandler;
+            Object attachment = this.attachment;
+            clear();
+            finishOperation();
+            if (intHandler != null) {
+                intHandler.failed(e, attachment);
+            } else {
+                longHandler.failed(e, attachment);
+            }
+        }
+
+        private void clear() {
+            single[0] = null;
+            buffers = null;
+            attachment = null;
+            intHandler = null;
+            longHandler = null;
+        }
+    }
+
+    private class Reading extends Operation {
+
+        @Override
+        Long step() throws IOException {
+            while (true) {
+                if (appIn.hasRemaining()) {
+                    return transfer();
+                }
+                if (flush()) {
+                    return null;
+                }
+
+                SSLEngineResult.HandshakeStatus handshakeStatus = engine.getHandshakeStatus();
+                if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    wrap(EMPTY, 0, 1);
+                    continue;
+                }
+
+                SSLEngineResult result = unwrap();
+                switch (result.getStatus()) {
+                    case OK:
+                        continue;
+                    case CLOSED: // close_notify from the peer
+                        return -1L;
+                    case BUFFER_UNDERFLOW: // a partial record: read more of it
+                        fill();
+                        return null;
+                    default: // BUFFER_OVERFLOW cannot happen with an application buffer of the session size
+                        throw new SSLException("Unexpected unwrap result: " + result);
+                }
+            }
+        }
+
+        private long transfer() {
+            long transferred = 0;
+            for (int i = offset; i < offset + length && appIn.hasRemaining(); i++) {
+                ByteBuffer dst = buffers[i];
+                int n = Math.min(appIn.remaining(), dst.remaining());
+                dst.put(dst.position(), appIn, appIn.position(), n);
+                appIn.position(appIn.position() + n);
+                dst.position(dst.position() + n);
+                transferred += n;
+            }
+            return transferred;
+        }
+    }
+
+    private class Writing extends Operation {
+
+        @Override
+        Long step() throws IOException {
+            while (true) {
+                if (flush()) {
+                    return null;
+                }
+                if (!hasRemaining()) {
+                    return transferred;
+                }
+
+                if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+                    // the handshake waits for the peer: its messages are decrypted here, application data is kept for the next read
+                    if (appIn.hasRemaining()) {
+                        throw new SSLException("Application data received during the handshake is not read");
+                    }
+                    SSLEngineResult result = unwrap();
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        fill();
+                        return null;
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new ClosedChannelException();
+                    }
+                    continue;
+                }
+
+                SSLEngineResult result = wrap(buffers, offset, length);
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new ClosedChannelException();
+                }
+                transferred += result.bytesConsumed();
+            }
+        }
+
+        @Override
+        public void completed(Integer bytes, Boolean read) {
+            if (read && bytes < 0) {
+                failed(new ClosedChannelException(), read);
+                return;
+            }
+            super.completed(bytes, read);
+        }
+
+        private boolean hasRemaining() {
+            for (int i = offset; i < offset + length; i++) {
+                if (buffers[i].hasRemaining()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // completes the futures of read(ByteBuffer) and write(ByteBuffer)
+    private static class FutureHandler implements CompletionHandler<Integer, CompletableFuture<Integer>> {
+
+        private static final FutureHandler INSTANCE = new FutureHandler();
+
+        static FutureHandler instance() {
+            return INSTANCE;
+        }
+
+        @Override
+        public void completed(Integer result, CompletableFuture<Integer> future) {
+            future.complete(result);
+        }
+
+        @Override
+        public void failed(Throwable e, CompletableFuture<Integer> future) {
+            future.completeExceptionally(e);
+        }
+    }
+}
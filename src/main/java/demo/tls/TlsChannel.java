@@ -0,0 +1,195 @@
+package demo.tls;
+
+import demo.common.BufferPool;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+
+// A TLS connection over a non-blocking socket channel for selector loops: read() and write() take and return
+// plaintext like the methods of the socket channel and drive the handshake as far as the socket lets them.
+// The ciphertext goes through two pooled direct buffers, and a third one holds the plaintext of the last record
+// that did not fit into the buffer of read(), because a record (up to 16 KB) can only be decrypted as a whole.
+// The delegated tasks of the handshake (certificate checks, key generation) run on the calling thread.
+//
+// A selector loop has to watch OP_WRITE while hasPendingOutput() and to read again while hasBufferedInput(),
+// because the bytes already taken from the socket do not make it readable again.
+public class TlsChannel implements ByteChannel {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+
+    private ByteBuffer netIn; // in write mode: ciphertext read from the socket and not yet decrypted
+    private ByteBuffer netOut; // in read mode: ciphertext not yet written to the socket
+    private ByteBuffer appIn; // in read mode: plaintext not yet returned by read()
+
+    public TlsChannel(SocketChannel channel, SSLEngine engine) {
+        this.channel = channel;
+        this.engine = engine;
+
+        int packetBufferSize = engine.getSession().getPacketBufferSize();
+        this.netIn = BufferPool.acquire(packetBufferSize);
+        this.netOut = BufferPool.acquire(packetBufferSize).flip();
+        this.appIn = BufferPool.acquire(engine.getSession().getApplicationBufferSize()).flip();
+    }
+
+    public SocketChannel channel() {
+        return channel;
+    }
+
+    // returns 0 when the handshake or a partial record waits for the socket, -1 at the end of the stream
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        while (true) {
+            if (appIn.hasRemaining()) {
+                return transfer(appIn, dst);
+            }
+            if (!flush()) {
+                return 0; // the handshake waits for the socket to take its output
+            }
+
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    continue;
+                case NEED_WRAP:
+                    wrap(EMPTY);
+                    continue;
+                default:
+                    break;
+            }
+
+            netIn.flip();
+            appIn.clear();
+            SSLEngineResult result = engine.unwrap(netIn, appIn);
+            netIn.compact();
+            appIn.flip();
+
+            switch (result.getStatus()) {
+                case OK:
+                    continue;
+                case CLOSED: // close_notify from the peer
+                    return -1;
+                case BUFFER_UNDERFLOW: // a partial record: read more of it
+                    int read = channel.read(netIn); // can be non-blocking
+                    if (read < 0) {
+                        closeInbound();
+                        return -1;
+                    }
+                    if (read == 0) {
+                        return 0;
+                    }
+                    continue;
+                default: // BUFFER_OVERFLOW cannot happen with an application buffer of the session size
+                    throw new SSLException("Unexpected unwrap result: " + result);
+            }
+        }
+    }
+
+    // returns the number of plaintext bytes taken, which may be fewer than remaining if the socket is full
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = 0;
+        while (flush() && src.hasRemaining()) {
+            SSLEngineResult result = wrap(src);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new ClosedChannelException();
+            }
+            if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                break; // the engine waits for a handshake message from the peer, which read() will process
+            }
+            written += result.bytesConsumed();
+        }
+        return written;
+    }
+
+    // writes the ciphertext left over by read() and write(), returns true when it has all been written
+    public boolean flush() throws IOException {
+        while (netOut.hasRemaining()) {
+            if (channel.write(netOut) == 0) { // can be non-blocking
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean hasPendingOutput() {
+        return netOut.hasRemaining();
+    }
+
+    public boolean hasBufferedInput() {
+        return appIn.hasRemaining() || netIn.position() > 0;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    // sends close_notify if the socket takes it at once, then closes the socket and releases the buffers
+    @Override
+    public void close() throws IOException {
+        if (netIn == null) {
+            return;
+        }
+        try {
+            engine.closeOutbound();
+            if (channel.isOpen() && flush()) {
+                wrap(EMPTY);
+                flush();
+            }
+        } catch (IOException e) {
+            // the peer has gone already
+        } finally {
+            channel.close();
+            BufferPool.release(netIn);
+            BufferPool.release(netOut);
+            BufferPool.release(appIn);
+            netIn = null;
+            netOut = null;
+            appIn = null;
+        }
+    }
+
+    private SSLEngineResult wrap(ByteBuffer src) throws IOException {
+        netOut.compact();
+        SSLEngineResult result = engine.wrap(src, netOut);
+        netOut.flip();
+
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            runDelegatedTasks();
+        }
+        return result;
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    // the end of the stream without close_notify: a truncation attack or just a peer that did not send it
+    private void closeInbound() {
+        try {
+            engine.closeInbound();
+        } catch (SSLException e) {
+            // the connection is closed either way
+        }
+    }
+
+    private static int transfer(ByteBuffer src, ByteBuffer dst) {
+        int length = Math.min(src.remaining(), dst.remaining());
+        dst.put(dst.position(), src, src.position(), length);
+        src.position(src.position() + length);
+        dst.position(dst.position() + length);
+        return length;
+    }
+}